@@ -0,0 +1,166 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.internal.Terms;
+
+/**
+ * Boolean query over the archived statuses.
+ *
+ * A status matches if it contains at least one term of every group (so groups
+ * are combined by AND, terms of a group by OR), none of the excluded terms, has
+ * the given author and was created in the given time range. Terms are words,
+ * "@mentions" and "#hashtags", they are compared case-insensitively.
+ */
+public class ArchiveQuery {
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+	private List<List<String>> groups = new ArrayList<List<String>>();
+	private List<String> excluded = new ArrayList<String>();
+	private String author;
+	private long since = Long.MIN_VALUE;
+	private long until = Long.MAX_VALUE;
+
+	/**
+	 * Parses a query in the syntax of Twitter search: words are required,
+	 * "a OR b" requires any of them, "-word" excludes a word, "from:name" gives
+	 * the author and "since:2014-01-31" and "until:2014-02-28" the dates (until
+	 * is exclusive).
+	 *
+	 * @throws IllegalArgumentException if a date cannot be parsed
+	 */
+	public static ArchiveQuery parse(String text) {
+		ArchiveQuery query = new ArchiveQuery();
+		boolean or = false;
+		for (String part : text.trim().split("\\s+")) {
+			if (part.length() == 0) continue;
+
+			if (part.equals("OR")) {
+				or = !query.groups.isEmpty();
+			} else if (part.startsWith("from:")) {
+				query.from(part.substring(5));
+			} else if (part.startsWith("since:")) {
+				query.since(parseDate(part.substring(6)));
+			} else if (part.startsWith("until:")) {
+				query.until(parseDate(part.substring(6)));
+			} else if (part.startsWith("-") && part.length() > 1) {
+				query.excluded.addAll(Terms.tokenize(part.substring(1)));
+			} else {
+				List<String> terms = Terms.tokenize(part);
+				if (!terms.isEmpty()) {
+					if (or) {
+						query.groups.get(query.groups.size() - 1).add(terms.get(0));
+						terms = terms.subList(1, terms.size());
+					}
+					for (String term : terms) {
+						query.any(term);
+					}
+				}
+				or = false;
+			}
+		}
+		return query;
+	}
+
+	private static Date parseDate(String date) {
+		try {
+			return new SimpleDateFormat(DATE_FORMAT, Locale.ENGLISH).parse(date);
+		}
+		catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid date " + date + ", the format is " + DATE_FORMAT);
+		}
+	}
+
+	/**
+	 * Requires all the terms.
+	 */
+	public ArchiveQuery all(String... terms) {
+		for (String term : terms) {
+			any(term);
+		}
+		return this;
+	}
+
+	/**
+	 * Requires at least one of the terms.
+	 */
+	public ArchiveQuery any(String... terms) {
+		List<String> group = new ArrayList<String>();
+		for (String term : terms) {
+			group.add(normalize(term));
+		}
+		groups.add(group);
+		return this;
+	}
+
+	/**
+	 * Excludes statuses with any of the terms.
+	 */
+	public ArchiveQuery none(String... terms) {
+		for (String term : terms) {
+			excluded.add(normalize(term));
+		}
+		return this;
+	}
+
+	public ArchiveQuery from(String screenName) {
+		author = screenName.startsWith("@") ? screenName.substring(1) : screenName;
+		author = author.toLowerCase(Locale.ENGLISH);
+		return this;
+	}
+
+	public ArchiveQuery since(Date date) {
+		since = date.getTime();
+		return this;
+	}
+
+	public ArchiveQuery until(Date date) {
+		until = date.getTime();
+		return this;
+	}
+
+	public List<List<String>> getGroups() {
+		return Collections.unmodifiableList(groups);
+	}
+
+	public List<String> getExcluded() {
+		return Collections.unmodifiableList(excluded);
+	}
+
+	// lower-case screen name or null
+	public String getAuthor() {
+		return author;
+	}
+
+	public long getSince() {
+		return since;
+	}
+
+	// exclusive
+	public long getUntil() {
+		return until;
+	}
+
+	// nothing restricts the statuses
+	public boolean isEmpty() {
+		return groups.isEmpty() && excluded.isEmpty() && author == null
+				&& since == Long.MIN_VALUE && until == Long.MAX_VALUE;
+	}
+
+	private static String normalize(String term) {
+		return Terms.normalize(term);
+	}
+
+	@Override
+	public String toString() {
+		return "groups=" + groups + ", excluded=" + excluded + ", author=" + author
+				+ ", since=" + since + ", until=" + until;
+	}
+}
@@ -0,0 +1,48 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive;
+
+import java.util.Date;
+
+/**
+ * Status read from the archive, only the data needed to show it are archived.
+ */
+public final class ArchivedStatus {
+
+	private long id;
+	private long userId;
+	private String screenName;
+	private long createdAt;
+	private String text;
+
+	public ArchivedStatus(long id, long userId, String screenName, long createdAt, String text) {
+		this.id = id;
+		this.userId = userId;
+		this.screenName = screenName;
+		this.createdAt = createdAt;
+		this.text = text;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	public String getScreenName() {
+		return screenName;
+	}
+
+	public Date getCreatedAt() {
+		return new Date(createdAt);
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return "@" + screenName + ": " + text;
+	}
+}
@@ -0,0 +1,29 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive;
+
+import java.io.IOException;
+import java.util.List;
+
+import twitter4j.Status;
+
+/**
+ * OSGi service archiving all statuses the client has seen, so that they can be
+ * searched offline across sessions.
+ */
+public interface IArchiveService {
+
+	/**
+	 * Queues the statuses for archiving and returns immediately. Statuses archived
+	 * already are skipped, new ones can be found within a few seconds.
+	 */
+	void add(List<Status> statuses);
+
+	/**
+	 * Returns the archived statuses matching the query, newest first.
+	 */
+	List<ArchivedStatus> search(ArchiveQuery query, int limit) throws IOException;
+
+	/**
+	 * Returns the number of archived statuses (without those still being indexed).
+	 */
+	int getSize();
+}
@@ -0,0 +1,398 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive.internal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.component.ComponentContext;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchiveQuery;
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchivedStatus;
+import cz.cuni.mff.d3s.nprg044.twitter.archive.IArchiveService;
+
+import twitter4j.Status;
+
+/**
+ * Declarative service keeping the archive in the data area of the bundle.
+ *
+ * Added statuses wait in a bounded queue for the indexer thread, which buffers
+ * them and writes them to a new segment when enough of them arrive or when no
+ * more arrive for a while. Segments are never changed, a merger thread merges
+ * every {@link #MERGE_FACTOR} segments of about the same size into a bigger
+ * one, so the number of segments stays logarithmic. Searches read a snapshot
+ * of the segments and never wait for the indexer or the merger.
+ */
+public class ArchiveService implements IArchiveService {
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	// statuses waiting for the indexer, more are dropped
+	private static final int QUEUE_CAPACITY = 10000;
+
+	// statuses written to one new segment at most
+	private static final int FLUSH_SIZE = 1000;
+	// buffered statuses are written when no new one arrives for this time
+	private static final long FLUSH_DELAY = 2000;
+
+	// number of segments of the same size class merged together
+	private static final int MERGE_FACTOR = 4;
+
+	private static final long SHUTDOWN_TIMEOUT = 10 * 1000L;
+
+	private File directory;
+
+	private BlockingQueue<Status> queue = new ArrayBlockingQueue<Status>(QUEUE_CAPACITY);
+	private Thread indexer;
+	private ExecutorService merger;
+
+	// the current segments, oldest first; the list is replaced, never changed
+	private volatile List<Segment> segments = Collections.emptyList();
+	private final Object segmentsLock = new Object();
+	// segments being merged, they are not selected for another merge
+	private Set<Segment> merging = new HashSet<Segment>();
+	private int nextSegment;
+
+	@Override
+	public void add(List<Status> statuses) {
+		for (Status status : statuses) {
+			// the archive must not slow down the callers, statuses over the capacity are dropped
+			if (!queue.offer(status)) break;
+		}
+	}
+
+	@Override
+	public List<ArchivedStatus> search(ArchiveQuery query, int limit) throws IOException {
+		List<Segment> snapshot = acquireSegments();
+		try {
+			List<Hit> hits = new ArrayList<Hit>();
+			for (Segment segment : snapshot) {
+				BitSet docs = segment.match(query);
+				// documents are sorted by ids, only the last ones can be among the newest
+				int skip = docs.cardinality() - limit;
+				for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+					if (skip-- <= 0) {
+						hits.add(new Hit(segment, doc));
+					}
+				}
+			}
+
+			Collections.sort(hits);
+			List<ArchivedStatus> result = new ArrayList<ArchivedStatus>(Math.min(hits.size(), limit));
+			long lastId = 0;
+			for (Hit hit : hits) {
+				if (result.size() == limit) break;
+				// a status may be in two segments if the archive was stopped during a merge
+				if (hit.id == lastId) continue;
+
+				result.add(hit.segment.getStatus(hit.doc));
+				lastId = hit.id;
+			}
+			return result;
+		}
+		finally {
+			for (Segment segment : snapshot) {
+				segment.release();
+			}
+		}
+	}
+
+	@Override
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.getSize();
+		}
+		return size;
+	}
+
+	protected void activate(ComponentContext ctx) {
+		directory = ctx.getBundleContext().getDataFile("archive");
+		directory.mkdirs();
+		openSegments();
+
+		merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Status archive merger");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+
+		indexer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				index();
+			}
+		}, "Status archive indexer");
+		indexer.setDaemon(true);
+		indexer.start();
+
+		scheduleMerge();
+	}
+
+	protected void deactivate(ComponentContext ctx) {
+		// the indexer writes the buffered statuses before it stops
+		indexer.interrupt();
+		try {
+			indexer.join(SHUTDOWN_TIMEOUT);
+			merger.shutdown();
+			merger.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (segmentsLock) {
+			for (Segment segment : segments) {
+				segment.release();
+			}
+			segments = Collections.emptyList();
+		}
+	}
+
+	private void openSegments() {
+		// files of segments which were not completed
+		File[] tmpFiles = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".tmp");
+			}
+		});
+		for (File file : tmpFiles) {
+			file.delete();
+		}
+
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+
+		List<Segment> opened = new ArrayList<Segment>();
+		for (File file : files) {
+			try {
+				opened.add(Segment.open(file));
+			}
+			catch (IOException e) {
+				// the rest of the archive is still usable, the file is kept (it may be written by a newer version)
+			}
+
+			String name = file.getName();
+			try {
+				int number = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+				nextSegment = Math.max(nextSegment, number + 1);
+			}
+			catch (NumberFormatException e) {
+				// not our file
+			}
+		}
+		segments = Collections.unmodifiableList(opened);
+	}
+
+	// the indexer thread
+	private void index() {
+		List<ArchivedStatus> buffer = new ArrayList<ArchivedStatus>();
+		Set<Long> bufferIds = new HashSet<Long>();
+		try {
+			while (true) {
+				Status status = queue.poll(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+				if (status == null) {
+					flush(buffer, bufferIds);
+				} else if (!bufferIds.contains(status.getId()) && !isArchived(status.getId())) {
+					buffer.add(toArchived(status));
+					bufferIds.add(status.getId());
+					if (buffer.size() >= FLUSH_SIZE) {
+						flush(buffer, bufferIds);
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// stopping, the statuses in the queue are archived first
+			List<Status> rest = new ArrayList<Status>();
+			queue.drainTo(rest);
+			for (Status status : rest) {
+				if (bufferIds.add(status.getId()) && !isArchived(status.getId())) {
+					buffer.add(toArchived(status));
+				}
+			}
+			flush(buffer, bufferIds);
+		}
+	}
+
+	private void flush(List<ArchivedStatus> buffer, Set<Long> bufferIds) {
+		if (buffer.isEmpty()) return;
+
+		try {
+			Segment segment = writeSegment(buffer);
+			synchronized (segmentsLock) {
+				List<Segment> changed = new ArrayList<Segment>(segments);
+				changed.add(segment);
+				segments = Collections.unmodifiableList(changed);
+			}
+			scheduleMerge();
+		}
+		catch (IOException e) {
+			// the statuses will be archived again when they are seen again
+		}
+		buffer.clear();
+		bufferIds.clear();
+	}
+
+	private Segment writeSegment(List<ArchivedStatus> statuses) throws IOException {
+		File file;
+		synchronized (segmentsLock) {
+			file = new File(directory, String.format("%08d", nextSegment++) + SEGMENT_SUFFIX);
+		}
+		SegmentWriter.write(file, statuses);
+		return Segment.open(file);
+	}
+
+	private boolean isArchived(long id) {
+		for (Segment segment : segments) {
+			if (segment.contains(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static ArchivedStatus toArchived(Status status) {
+		long userId = status.getUser() != null ? status.getUser().getId() : 0;
+		String screenName = status.getUser() != null ? status.getUser().getScreenName() : "";
+		long createdAt = status.getCreatedAt() != null ? status.getCreatedAt().getTime() : 0;
+		String text = status.getText() != null ? status.getText() : "";
+		return new ArchivedStatus(status.getId(), userId, screenName, createdAt, text);
+	}
+
+	// picks MERGE_FACTOR segments of the same size class, if there are so many
+	private void scheduleMerge() {
+		final List<Segment> selected = new ArrayList<Segment>();
+		synchronized (segmentsLock) {
+			if (merger == null || merger.isShutdown()) return;
+
+			List<List<Segment>> levels = new ArrayList<List<Segment>>();
+			for (Segment segment : segments) {
+				if (merging.contains(segment)) continue;
+
+				int level = getLevel(segment.getSize());
+				while (levels.size() <= level) {
+					levels.add(new ArrayList<Segment>());
+				}
+				levels.get(level).add(segment);
+			}
+			for (List<Segment> level : levels) {
+				if (level.size() >= MERGE_FACTOR) {
+					selected.addAll(level.subList(0, MERGE_FACTOR));
+					break;
+				}
+			}
+			if (selected.isEmpty()) return;
+
+			merging.addAll(selected);
+		}
+
+		merger.execute(new Runnable() {
+			@Override
+			public void run() {
+				merge(selected);
+			}
+		});
+	}
+
+	// segments written by the indexer are level 0, merging MERGE_FACTOR segments of a level gives the next one
+	private static int getLevel(int size) {
+		int level = 0;
+		long limit = (long) FLUSH_SIZE * MERGE_FACTOR;
+		while (size >= limit) {
+			level++;
+			limit *= MERGE_FACTOR;
+		}
+		return level;
+	}
+
+	// the merger thread
+	private void merge(List<Segment> sources) {
+		Segment merged = null;
+		try {
+			List<ArchivedStatus> statuses = new ArrayList<ArchivedStatus>();
+			for (Segment source : sources) {
+				for (int doc = 0; doc < source.getSize(); doc++) {
+					statuses.add(source.getStatus(doc));
+				}
+			}
+			merged = writeSegment(statuses);
+		}
+		catch (IOException e) {
+			// the sources stay, they are selected again by the next merge
+		}
+
+		synchronized (segmentsLock) {
+			merging.removeAll(sources);
+			if (merged == null) return;
+
+			// the merged segment takes the place of the oldest source, the order by age is kept
+			List<Segment> changed = new ArrayList<Segment>(segments);
+			changed.set(changed.indexOf(sources.get(0)), merged);
+			changed.removeAll(sources);
+			segments = Collections.unmodifiableList(changed);
+		}
+
+		for (Segment source : sources) {
+			// deleted as soon as no search reads it
+			source.delete();
+		}
+		scheduleMerge();
+	}
+
+	private List<Segment> acquireSegments() {
+		List<Segment> result = new ArrayList<Segment>();
+		synchronized (segmentsLock) {
+			for (Segment segment : segments) {
+				if (segment.acquire()) {
+					result.add(segment);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Matching status of a segment, hits are sorted newest first.
+	 */
+	private static class Hit implements Comparable<Hit> {
+
+		private Segment segment;
+		private int doc;
+		private long id;
+
+		Hit(Segment segment, int doc) {
+			this.segment = segment;
+			this.doc = doc;
+			this.id = segment.getId(doc);
+		}
+
+		@Override
+		public int compareTo(Hit other) {
+			return id > other.id ? -1 : (id < other.id ? 1 : 0);
+		}
+	}
+}
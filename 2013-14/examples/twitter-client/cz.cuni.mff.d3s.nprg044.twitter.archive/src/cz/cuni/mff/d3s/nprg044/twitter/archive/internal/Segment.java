@@ -0,0 +1,257 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchiveQuery;
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchivedStatus;
+
+/**
+ * Immutable segment of the archive, a file with statuses and their own index.
+ *
+ * Layout of the file (numbers are big-endian):
+ * <ul>
+ * <li>header: magic, version, number of statuses</li>
+ * <li>columns: ids of the statuses (ascending), user ids, creation times and
+ * offsets of the stored fields</li>
+ * <li>stored fields: screen name and text of every status</li>
+ * <li>dictionary: number of terms, every term (ascending) with the number of
+ * statuses containing it and the offset of its postings, the end of postings</li>
+ * <li>postings: for every term, numbers of the statuses containing it as
+ * differences encoded in variable-length integers</li>
+ * <li>footer: offsets of the stored fields, the dictionary and the postings</li>
+ * </ul>
+ *
+ * The columns and the dictionary are loaded to memory when the segment is
+ * opened, postings and stored fields are read from the file when needed.
+ *
+ * Segments are reference counted, the archive holds one reference and every
+ * search one more, so a merged segment is deleted only when no search reads it.
+ */
+class Segment {
+
+	private static final int FOOTER_SIZE = 3 * 8;
+
+	private File file;
+	private RandomAccessFile in;
+
+	private int size;
+	private long[] ids;
+	private long[] userIds;
+	private long[] times;
+	private int[] storedOffsets;
+
+	private String[] terms;
+	private int[] docFreqs;
+	// one more than terms, the end of the last posting list
+	private int[] postingOffsets;
+
+	private long storedStart;
+	private long postingsStart;
+
+	private int references = 1;
+	private boolean obsolete;
+
+	private Segment(File file) {
+		this.file = file;
+	}
+
+	static Segment open(File file) throws IOException {
+		Segment segment = new Segment(file);
+		try {
+			segment.load();
+		}
+		catch (IOException e) {
+			segment.close();
+			throw e;
+		}
+		return segment;
+	}
+
+	private void load() throws IOException {
+		in = new RandomAccessFile(file, "r");
+		if (in.readInt() != SegmentWriter.MAGIC || in.readInt() != SegmentWriter.VERSION) {
+			throw new IOException(file + " is not a segment of the archive");
+		}
+		size = in.readInt();
+
+		in.seek(in.length() - FOOTER_SIZE);
+		storedStart = in.readLong();
+		long dictionaryStart = in.readLong();
+		postingsStart = in.readLong();
+		// a broken file must not make the arrays below negative or huge
+		if (size < 0 || storedStart != SegmentWriter.HEADER_SIZE + (long) size * SegmentWriter.COLUMNS_SIZE
+				|| dictionaryStart < storedStart || postingsStart < dictionaryStart || postingsStart > in.length() - FOOTER_SIZE) {
+			throw new IOException(file + " is broken");
+		}
+
+		ByteBuffer columns = ByteBuffer.wrap(read(SegmentWriter.HEADER_SIZE, size * SegmentWriter.COLUMNS_SIZE));
+		ids = new long[size];
+		userIds = new long[size];
+		times = new long[size];
+		storedOffsets = new int[size];
+		columns.asLongBuffer().get(ids).get(userIds).get(times);
+		columns.position(size * 3 * 8);
+		columns.asIntBuffer().get(storedOffsets);
+
+		DataInputStream dictionary = new DataInputStream(new ByteArrayInputStream(
+				read(dictionaryStart, (int) (postingsStart - dictionaryStart))));
+		int termCount = dictionary.readInt();
+		if (termCount < 0 || termCount > postingsStart - dictionaryStart) {
+			throw new IOException(file + " is broken");
+		}
+		terms = new String[termCount];
+		docFreqs = new int[termCount];
+		postingOffsets = new int[termCount + 1];
+		for (int i = 0; i < termCount; i++) {
+			terms[i] = dictionary.readUTF();
+			docFreqs[i] = dictionary.readInt();
+			postingOffsets[i] = dictionary.readInt();
+		}
+		postingOffsets[termCount] = dictionary.readInt();
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	int getSize() {
+		return size;
+	}
+
+	long getId(int doc) {
+		return ids[doc];
+	}
+
+	boolean contains(long id) {
+		return Arrays.binarySearch(ids, id) >= 0;
+	}
+
+	/**
+	 * Returns numbers of the statuses matching the query.
+	 */
+	BitSet match(ArchiveQuery query) throws IOException {
+		BitSet result = new BitSet(size);
+		result.set(0, size);
+
+		for (List<String> group : query.getGroups()) {
+			BitSet matching = new BitSet(size);
+			for (String term : group) {
+				mark(term, matching);
+			}
+			result.and(matching);
+			if (result.isEmpty()) return result;
+		}
+
+		if (query.getAuthor() != null) {
+			BitSet matching = new BitSet(size);
+			mark(Terms.author(query.getAuthor()), matching);
+			result.and(matching);
+		}
+
+		for (String term : query.getExcluded()) {
+			BitSet matching = new BitSet(size);
+			mark(term, matching);
+			result.andNot(matching);
+		}
+
+		if (query.getSince() != Long.MIN_VALUE || query.getUntil() != Long.MAX_VALUE) {
+			for (int doc = result.nextSetBit(0); doc >= 0; doc = result.nextSetBit(doc + 1)) {
+				if (times[doc] < query.getSince() || times[doc] >= query.getUntil()) {
+					result.clear(doc);
+				}
+			}
+		}
+		return result;
+	}
+
+	// sets bits of the statuses containing the term
+	private void mark(String term, BitSet docs) throws IOException {
+		int index = Arrays.binarySearch(terms, term);
+		if (index < 0) return;
+
+		byte[] postings = read(postingsStart + postingOffsets[index], postingOffsets[index + 1] - postingOffsets[index]);
+		int doc = 0;
+		int position = 0;
+		for (int i = 0; i < docFreqs[index]; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = postings[position++];
+				delta |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			doc += delta;
+			docs.set(doc);
+		}
+	}
+
+	synchronized ArchivedStatus getStatus(int doc) throws IOException {
+		in.seek(storedStart + storedOffsets[doc]);
+		String screenName = in.readUTF();
+		String text = in.readUTF();
+		return new ArchivedStatus(ids[doc], userIds[doc], screenName, times[doc], text);
+	}
+
+	private synchronized byte[] read(long position, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.seek(position);
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Adds a reference, returns false if the segment has been closed already.
+	 */
+	synchronized boolean acquire() {
+		if (references == 0) return false;
+
+		references++;
+		return true;
+	}
+
+	/**
+	 * Drops a reference, the file is closed (and deleted if the segment is obsolete)
+	 * when the last one is dropped.
+	 */
+	synchronized void release() {
+		if (--references == 0) {
+			close();
+			if (obsolete) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Marks the segment replaced by a merged one and drops the reference of the archive.
+	 */
+	synchronized void delete() {
+		obsolete = true;
+		release();
+	}
+
+	private void close() {
+		try {
+			if (in != null) {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file.getName() + " (" + size + " statuses)";
+	}
+}
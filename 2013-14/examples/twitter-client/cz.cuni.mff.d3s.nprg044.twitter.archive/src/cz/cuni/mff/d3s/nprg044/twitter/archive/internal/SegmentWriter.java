@@ -0,0 +1,166 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchivedStatus;
+
+/**
+ * Writes segment files, see {@link Segment} for their layout.
+ */
+class SegmentWriter {
+
+	static final int MAGIC = 0x54574152;
+	static final int VERSION = 1;
+
+	// magic, version and the number of statuses
+	static final int HEADER_SIZE = 12;
+	// id, user id, creation time and offset of the stored fields
+	static final int COLUMNS_SIZE = 8 + 8 + 8 + 4;
+
+	/**
+	 * Writes the statuses (duplicates are dropped) to a new segment file. The file
+	 * is written under a temporary name and renamed when it is complete, so a
+	 * segment file is never seen half-written.
+	 */
+	static void write(File file, List<ArchivedStatus> statuses) throws IOException {
+		List<ArchivedStatus> sorted = new ArrayList<ArchivedStatus>(statuses);
+		Collections.sort(sorted, new Comparator<ArchivedStatus>() {
+			@Override
+			public int compare(ArchivedStatus s1, ArchivedStatus s2) {
+				return s1.getId() < s2.getId() ? -1 : (s1.getId() > s2.getId() ? 1 : 0);
+			}
+		});
+		for (int i = sorted.size() - 1; i > 0; i--) {
+			if (sorted.get(i).getId() == sorted.get(i - 1).getId()) {
+				sorted.remove(i);
+			}
+		}
+
+		int count = sorted.size();
+		Map<String, Postings> terms = new TreeMap<String, Postings>();
+		ByteArrayOutputStream storedBytes = new ByteArrayOutputStream();
+		DataOutputStream stored = new DataOutputStream(storedBytes);
+		int[] storedOffsets = new int[count];
+
+		for (int doc = 0; doc < count; doc++) {
+			ArchivedStatus status = sorted.get(doc);
+			storedOffsets[doc] = stored.size();
+			stored.writeUTF(status.getScreenName());
+			stored.writeUTF(status.getText());
+
+			addTerm(terms, Terms.author(status.getScreenName()), doc);
+			for (String term : Terms.tokenize(status.getText())) {
+				addTerm(terms, term, doc);
+			}
+		}
+
+		ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+		DataOutputStream dictionary = new DataOutputStream(dictionaryBytes);
+		dictionary.writeInt(terms.size());
+		for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+			Postings postings = entry.getValue();
+			dictionary.writeUTF(entry.getKey());
+			dictionary.writeInt(postings.size);
+			dictionary.writeInt(postingBytes.size());
+			postings.writeTo(postingBytes);
+		}
+		// the end of the last posting list
+		dictionary.writeInt(postingBytes.size());
+
+		long storedStart = HEADER_SIZE + (long) count * COLUMNS_SIZE;
+		long dictionaryStart = storedStart + storedBytes.size();
+		long postingsStart = dictionaryStart + dictionaryBytes.size();
+
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for (ArchivedStatus status : sorted) {
+				out.writeLong(status.getId());
+			}
+			for (ArchivedStatus status : sorted) {
+				out.writeLong(status.getUserId());
+			}
+			for (ArchivedStatus status : sorted) {
+				out.writeLong(status.getCreatedAt().getTime());
+			}
+			for (int offset : storedOffsets) {
+				out.writeInt(offset);
+			}
+			storedBytes.writeTo(out);
+			dictionaryBytes.writeTo(out);
+			postingBytes.writeTo(out);
+			out.writeLong(storedStart);
+			out.writeLong(dictionaryStart);
+			out.writeLong(postingsStart);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		finally {
+			fileOut.close();
+		}
+
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Cannot rename " + tmp + " to " + file);
+		}
+	}
+
+	private static void addTerm(Map<String, Postings> terms, String term, int doc) {
+		Postings postings = terms.get(term);
+		if (postings == null) {
+			postings = new Postings();
+			terms.put(term, postings);
+		}
+		postings.add(doc);
+	}
+
+	/**
+	 * Numbers of the statuses containing a term, in the ascending order.
+	 */
+	private static class Postings {
+
+		private int[] docs = new int[2];
+		private int size;
+
+		void add(int doc) {
+			// the term occurs more than once in the status
+			if (size > 0 && docs[size - 1] == doc) return;
+
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size * 2);
+			}
+			docs[size++] = doc;
+		}
+
+		// differences of the numbers, seven bits per byte, the highest bit marks more bytes
+		void writeTo(ByteArrayOutputStream out) {
+			int last = 0;
+			for (int i = 0; i < size; i++) {
+				int delta = docs[i] - last;
+				last = docs[i];
+				while ((delta & ~0x7f) != 0) {
+					out.write((delta & 0x7f) | 0x80);
+					delta >>>= 7;
+				}
+				out.write(delta);
+			}
+		}
+	}
+}
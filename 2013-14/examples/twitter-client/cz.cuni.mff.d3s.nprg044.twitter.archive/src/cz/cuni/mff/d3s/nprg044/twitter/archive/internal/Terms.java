@@ -0,0 +1,56 @@
+package cz.cuni.mff.d3s.nprg044.twitter.archive.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splitting of status texts to the terms of the index.
+ *
+ * Terms are lower-case runs of letters, digits and underscores. A run directly
+ * after '@' or '#' keeps the character, so mentions and hashtags do not match
+ * plain words. Authors are indexed as special terms with a prefix, the
+ * tokenizer never produces terms with ':'.
+ */
+public final class Terms {
+
+	private static final String AUTHOR_PREFIX = "from:";
+
+	private Terms() {
+	}
+
+	public static List<String> tokenize(String text) {
+		List<String> result = new ArrayList<String>();
+		if (text == null) return result;
+
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c) || c == '_') {
+				term.append(Character.toLowerCase(c));
+			} else if ((c == '@' || c == '#') && term.length() == 0) {
+				term.append(c);
+			} else {
+				if (term.length() > 1 || (term.length() == 1 && term.charAt(0) != '@' && term.charAt(0) != '#')) {
+					result.add(term.toString());
+				}
+				term.setLength(0);
+			}
+		}
+		return result;
+	}
+
+	public static String normalize(String term) {
+		StringBuilder result = new StringBuilder(term.length());
+		for (int i = 0; i < term.length(); i++) {
+			result.append(Character.toLowerCase(term.charAt(i)));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the term standing for the author with the given screen name.
+	 */
+	public static String author(String screenName) {
+		return AUTHOR_PREFIX + normalize(screenName);
+	}
+}
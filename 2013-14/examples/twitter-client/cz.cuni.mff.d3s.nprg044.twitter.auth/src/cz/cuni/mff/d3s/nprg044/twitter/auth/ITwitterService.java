@@ -0,0 +1,50 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth;
+
+import java.util.concurrent.Future;
+
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * OSGi service owning the configured Twitter client shared by all bundles.
+ *
+ * API calls should be made through {@link #submit} or {@link #execute}, the
+ * scheduler keeps them within the rate limits of their endpoints. Requests over
+ * the limit wait in the queue until the window resets instead of failing.
+ */
+public interface ITwitterService {
+
+	/**
+	 * Returns the current client. It is thread-safe, callers should not keep it
+	 * for long because it is replaced when the credentials change.
+	 */
+	Twitter getTwitter();
+
+	/**
+	 * Replaces the client by a new one using the given credentials.
+	 */
+	void configure(String consumerKey, String consumerSecret, String accessToken, String accessTokenSecret);
+
+	/**
+	 * Queues the request, the future fails with {@link TwitterException} if the call fails.
+	 */
+	<T> Future<T> submit(TwitterRequest<T> request);
+
+	/**
+	 * Queues the request and waits for its result.
+	 */
+	<T> T execute(TwitterRequest<T> request) throws TwitterException;
+
+	/**
+	 * Resolves the screen name to a user. Concurrent requests for the same name
+	 * share one call and names requested at about the same time are looked up
+	 * together (users/lookup).
+	 */
+	Future<User> resolveUser(String screenName, int priority);
+
+	/**
+	 * Returns the known budget of the given endpoint family.
+	 */
+	RateLimitBudget getBudget(String endpoint);
+}
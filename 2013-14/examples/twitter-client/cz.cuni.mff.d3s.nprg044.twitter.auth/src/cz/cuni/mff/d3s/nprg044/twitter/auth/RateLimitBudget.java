@@ -0,0 +1,56 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth;
+
+/**
+ * Remaining number of requests of an endpoint family in the current rate limit window.
+ */
+public final class RateLimitBudget {
+
+	private String endpoint;
+	private int limit;
+	private int remaining;
+	private long resetTime;
+	private int queued;
+
+	public RateLimitBudget(String endpoint, int limit, int remaining, long resetTime, int queued) {
+		this.endpoint = endpoint;
+		this.limit = limit;
+		this.remaining = remaining;
+		this.resetTime = resetTime;
+		this.queued = queued;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	// maximal number of requests in a window
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getRemaining() {
+		return remaining;
+	}
+
+	// time of the end of the current window in milliseconds (System.currentTimeMillis())
+	public long getResetTime() {
+		return resetTime;
+	}
+
+	// number of requests waiting in the queue
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * Returns true if less than the given fraction of the limit remains.
+	 */
+	public boolean isLow(double fraction) {
+		return remaining - queued < limit * fraction;
+	}
+
+	@Override
+	public String toString() {
+		return endpoint + ": " + remaining + "/" + limit + ", " + queued + " queued";
+	}
+}
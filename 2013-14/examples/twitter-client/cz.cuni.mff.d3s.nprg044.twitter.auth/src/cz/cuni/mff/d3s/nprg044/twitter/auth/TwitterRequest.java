@@ -0,0 +1,54 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth;
+
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+
+/**
+ * A single Twitter API call executed by the request scheduler of {@link ITwitterService}.
+ *
+ * Every request belongs to an endpoint family which has its own rate limit
+ * (see the constants) and has a priority, requests with lower values are
+ * executed first.
+ */
+public abstract class TwitterRequest<T> {
+
+	// endpoint families with separate rate limits
+	public static final String USERS_SHOW = "users/show";
+	public static final String USERS_LOOKUP = "users/lookup";
+	public static final String USER_TIMELINE = "statuses/user_timeline";
+	public static final String STATUSES_SHOW = "statuses/show";
+	public static final String FOLLOWERS_IDS = "followers/ids";
+	public static final String FRIENDS_IDS = "friends/ids";
+
+	// the user is waiting for the result
+	public static final int PRIORITY_INTERACTIVE = 0;
+	public static final int PRIORITY_NORMAL = 5;
+	// prefetching and other work the user does not wait for
+	public static final int PRIORITY_BACKGROUND = 10;
+
+	private String endpoint;
+	private int priority;
+
+	public TwitterRequest(String endpoint, int priority) {
+		this.endpoint = endpoint;
+		this.priority = priority;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Calls the API, it runs in a worker thread of the scheduler.
+	 */
+	public abstract T execute(Twitter twitter) throws TwitterException;
+
+	@Override
+	public String toString() {
+		return endpoint + " (priority " + priority + ")";
+	}
+}
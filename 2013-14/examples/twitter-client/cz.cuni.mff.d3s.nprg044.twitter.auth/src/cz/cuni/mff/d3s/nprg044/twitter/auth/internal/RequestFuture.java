@@ -0,0 +1,101 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth.internal;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future completed explicitly by the request scheduler.
+ *
+ * Subclasses may override {@link #done()} to be notified about the completion.
+ */
+public class RequestFuture<T> implements Future<T> {
+
+	private CountDownLatch done = new CountDownLatch(1);
+
+	private T result;
+	private Throwable exception;
+	private boolean cancelled;
+
+	/**
+	 * Completes the future, returns false if it has been completed already.
+	 */
+	public boolean set(T value) {
+		synchronized (this) {
+			if (isDone()) return false;
+
+			result = value;
+			done.countDown();
+		}
+		done();
+		return true;
+	}
+
+	public boolean setException(Throwable t) {
+		synchronized (this) {
+			if (isDone()) return false;
+
+			exception = t;
+			done.countDown();
+		}
+		done();
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone()) return false;
+
+			// a running call is not interrupted, its result is only ignored
+			cancelled = true;
+			done.countDown();
+		}
+		done();
+		return true;
+	}
+
+	/**
+	 * Called once when the future has been completed or cancelled, in the thread
+	 * which completed it.
+	 */
+	protected void done() {
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+	private synchronized T getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return result;
+	}
+}
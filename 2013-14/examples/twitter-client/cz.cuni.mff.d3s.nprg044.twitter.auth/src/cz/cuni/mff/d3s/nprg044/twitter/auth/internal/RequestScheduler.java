@@ -0,0 +1,318 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.RateLimitBudget;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+
+import twitter4j.RateLimitStatus;
+import twitter4j.TwitterException;
+import twitter4j.TwitterResponse;
+
+/**
+ * Executes Twitter requests by priority within the rate limits of their endpoints.
+ *
+ * Every endpoint family has a token bucket holding the number of requests left
+ * in the current window. A token is taken when a request is started and the
+ * bucket is corrected by the rate limit headers of every response. Requests of
+ * an empty bucket wait until the window resets, requests of other endpoints
+ * are not blocked by them. A request refused with HTTP 429 is queued again.
+ */
+public class RequestScheduler {
+
+	// maximal number of requests running at the same time
+	private static final int WORKERS = 4;
+
+	// length of a rate limit window of the Twitter API
+	private static final long WINDOW = 15 * 60 * 1000L;
+
+	// limit used until the headers of the first response are known
+	private static final int DEFAULT_LIMIT = 15;
+
+	// how many times a request refused because of the rate limit is tried again
+	private static final int MAX_ATTEMPTS = 3;
+
+	// documented limits per window of the endpoint families we use
+	private static final Map<String, Integer> KNOWN_LIMITS = new HashMap<String, Integer>();
+	static {
+		KNOWN_LIMITS.put(TwitterRequest.USERS_SHOW, 180);
+		KNOWN_LIMITS.put(TwitterRequest.USERS_LOOKUP, 180);
+		KNOWN_LIMITS.put(TwitterRequest.USER_TIMELINE, 180);
+		KNOWN_LIMITS.put(TwitterRequest.STATUSES_SHOW, 180);
+		KNOWN_LIMITS.put(TwitterRequest.FOLLOWERS_IDS, 15);
+		KNOWN_LIMITS.put(TwitterRequest.FRIENDS_IDS, 15);
+	}
+
+	private TwitterService service;
+
+	// guards all fields below
+	private Object lock = new Object();
+
+	// ordered by priority, then by the order of submission
+	private TreeSet<Queued<?>> queue = new TreeSet<Queued<?>>(new Comparator<Queued<?>>() {
+		@Override
+		public int compare(Queued<?> a, Queued<?> b) {
+			if (a.request.getPriority() != b.request.getPriority()) {
+				return a.request.getPriority() < b.request.getPriority() ? -1 : 1;
+			}
+			return a.sequence < b.sequence ? -1 : (a.sequence > b.sequence ? 1 : 0);
+		}
+	});
+
+	private Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+	private long sequence;
+	private int running;
+	private boolean stopped;
+
+	private ExecutorService executor = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Twitter request");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private Thread dispatcher = new Thread("Twitter request scheduler") {
+		@Override
+		public void run() {
+			dispatch();
+		}
+	};
+
+	public RequestScheduler(TwitterService service) {
+		this.service = service;
+
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	public <T> RequestFuture<T> submit(TwitterRequest<T> request) {
+		return submit(request, new RequestFuture<T>());
+	}
+
+	/**
+	 * Queues the request, its result is set to the given future.
+	 */
+	public <T> RequestFuture<T> submit(TwitterRequest<T> request, RequestFuture<T> future) {
+		boolean rejected;
+		synchronized (lock) {
+			rejected = stopped;
+			if (!stopped) {
+				queue.add(new Queued<T>(request, future, sequence++));
+				lock.notifyAll();
+			}
+		}
+		if (rejected) {
+			future.setException(new TwitterException("The Twitter service has been stopped"));
+		}
+		return future;
+	}
+
+	public RateLimitBudget getBudget(String endpoint) {
+		synchronized (lock) {
+			Bucket bucket = getBucket(endpoint, System.currentTimeMillis());
+
+			int queued = 0;
+			for (Queued<?> q : queue) {
+				if (q.request.getEndpoint().equals(endpoint)) {
+					queued++;
+				}
+			}
+
+			return new RateLimitBudget(endpoint, bucket.limit, bucket.remaining, bucket.resetTime, queued);
+		}
+	}
+
+	/**
+	 * Stops the scheduler, queued requests fail.
+	 */
+	public void stop() {
+		List<Queued<?>> dropped;
+		synchronized (lock) {
+			stopped = true;
+			dropped = new ArrayList<Queued<?>>(queue);
+			queue.clear();
+			lock.notifyAll();
+		}
+
+		// outside the lock, the futures may notify their owners
+		for (Queued<?> q : dropped) {
+			q.future.setException(new TwitterException("The Twitter service has been stopped"));
+		}
+		executor.shutdown();
+	}
+
+	private void dispatch() {
+		synchronized (lock) {
+			while (!stopped) {
+				long now = System.currentTimeMillis();
+				long wakeUp = Long.MAX_VALUE;
+				Queued<?> next = null;
+
+				if (running < WORKERS) {
+					// the first request (by priority) whose endpoint has some budget left
+					Iterator<Queued<?>> it = queue.iterator();
+					while (it.hasNext()) {
+						Queued<?> q = it.next();
+						if (q.future.isDone()) {
+							// cancelled meanwhile
+							it.remove();
+							continue;
+						}
+
+						Bucket bucket = getBucket(q.request.getEndpoint(), now);
+						if (bucket.remaining > 0) {
+							bucket.remaining--;
+							it.remove();
+							next = q;
+							break;
+						}
+						wakeUp = Math.min(wakeUp, bucket.resetTime);
+					}
+				}
+
+				if (next != null) {
+					running++;
+					execute(next);
+				} else {
+					try {
+						// wait for a new request, a finished request or a reset of a window
+						lock.wait(wakeUp == Long.MAX_VALUE ? 0 : Math.max(wakeUp - now, 1));
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	private <T> void execute(final Queued<T> q) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					T result = q.request.execute(service.getTwitter());
+					if (result instanceof TwitterResponse) {
+						update(q.request.getEndpoint(), ((TwitterResponse) result).getRateLimitStatus(), false);
+					}
+					q.future.set(result);
+				}
+				catch (TwitterException e) {
+					update(q.request.getEndpoint(), e.getRateLimitStatus(), e.exceededRateLimitation());
+					if (e.exceededRateLimitation() && ++q.attempts < MAX_ATTEMPTS) {
+						// wait for the next window
+						requeue(q, e.getRetryAfter());
+					} else {
+						q.future.setException(e);
+					}
+				}
+				catch (RuntimeException e) {
+					q.future.setException(e);
+				}
+				finally {
+					synchronized (lock) {
+						running--;
+						lock.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	private void requeue(Queued<?> q, int retryAfter) {
+		synchronized (lock) {
+			if (!stopped) {
+				if (retryAfter > 0) {
+					Bucket bucket = getBucket(q.request.getEndpoint(), System.currentTimeMillis());
+					bucket.remaining = 0;
+					bucket.resetTime = Math.max(bucket.resetTime, System.currentTimeMillis() + retryAfter * 1000L);
+				}
+				queue.add(q);
+				lock.notifyAll();
+				return;
+			}
+		}
+		q.future.setException(new TwitterException("The Twitter service has been stopped"));
+	}
+
+	// corrects the bucket using the rate limit headers of a response
+	private void update(String endpoint, RateLimitStatus status, boolean exceeded) {
+		synchronized (lock) {
+			long now = System.currentTimeMillis();
+			Bucket bucket = getBucket(endpoint, now);
+
+			if (status != null) {
+				long resetTime = status.getResetTimeInSeconds() * 1000L;
+				bucket.limit = status.getLimit();
+				if (resetTime > bucket.resetTime) {
+					// a new window has started
+					bucket.resetTime = resetTime;
+					bucket.remaining = status.getRemaining();
+				} else if (resetTime > now) {
+					// the real end of the window may differ from our guess
+					bucket.resetTime = resetTime;
+					// tokens taken by requests still running are not counted by the server yet
+					bucket.remaining = Math.min(bucket.remaining, status.getRemaining());
+				}
+			}
+
+			if (exceeded) {
+				bucket.remaining = 0;
+				if (bucket.resetTime <= now) {
+					bucket.resetTime = now + WINDOW;
+				}
+			}
+			lock.notifyAll();
+		}
+	}
+
+	private Bucket getBucket(String endpoint, long now) {
+		Bucket bucket = buckets.get(endpoint);
+		if (bucket == null) {
+			Integer limit = KNOWN_LIMITS.get(endpoint);
+			bucket = new Bucket(limit != null ? limit.intValue() : DEFAULT_LIMIT);
+			buckets.put(endpoint, bucket);
+		}
+
+		if (now >= bucket.resetTime) {
+			// the window has been reset, its real end is known from the next response
+			bucket.remaining = bucket.limit;
+			bucket.resetTime = now + WINDOW;
+		}
+		return bucket;
+	}
+
+	private static class Bucket {
+		int limit;
+		int remaining;
+		long resetTime;
+
+		Bucket(int limit) {
+			this.limit = limit;
+		}
+	}
+
+	private static class Queued<T> {
+		TwitterRequest<T> request;
+		RequestFuture<T> future;
+		long sequence;
+		int attempts;
+
+		Queued(TwitterRequest<T> request, RequestFuture<T> future, long sequence) {
+			this.request = request;
+			this.future = future;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth.internal;
+
+import java.util.Dictionary;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.osgi.service.component.ComponentContext;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.ITwitterService;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.RateLimitBudget;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterFactory;
+import twitter4j.User;
+import twitter4j.conf.ConfigurationBuilder;
+
+/**
+ * Declarative service holding a single Twitter client.
+ *
+ * The credentials are taken from the component properties, so they can be
+ * changed through the Configuration Admin, or set by {@link #configure}.
+ * A fully configured client is always swapped in at once.
+ *
+ * All requests go through a single {@link RequestScheduler}, users are
+ * resolved by a {@link UserResolver} on top of it.
+ */
+public class TwitterService implements ITwitterService {
+
+	public static final String CONSUMER_KEY = "oauth.consumerKey";
+	public static final String CONSUMER_SECRET = "oauth.consumerSecret";
+	public static final String ACCESS_TOKEN = "oauth.accessToken";
+	public static final String ACCESS_TOKEN_SECRET = "oauth.accessTokenSecret";
+
+	private static final String DEFAULT_CREDENTIAL = "******";
+
+	private AtomicReference<Twitter> twitter = new AtomicReference<Twitter>();
+
+	private RequestScheduler scheduler;
+	private UserResolver resolver;
+
+	@Override
+	public Twitter getTwitter() {
+		Twitter current = twitter.get();
+		if (current == null) {
+			throw new IllegalStateException("The Twitter service is not active");
+		}
+		return current;
+	}
+
+	@Override
+	public void configure(String consumerKey, String consumerSecret, String accessToken, String accessTokenSecret) {
+		twitter.set(createTwitter(consumerKey, consumerSecret, accessToken, accessTokenSecret));
+	}
+
+	@Override
+	public <T> Future<T> submit(TwitterRequest<T> request) {
+		return scheduler.submit(request);
+	}
+
+	@Override
+	public <T> T execute(TwitterRequest<T> request) throws TwitterException {
+		try {
+			return submit(request).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TwitterException("Interrupted while waiting for " + request, e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TwitterException) {
+				throw (TwitterException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new TwitterException(cause.getMessage(), cause);
+		}
+	}
+
+	@Override
+	public Future<User> resolveUser(String screenName, int priority) {
+		return resolver.resolve(screenName, priority);
+	}
+
+	@Override
+	public RateLimitBudget getBudget(String endpoint) {
+		return scheduler.getBudget(endpoint);
+	}
+
+	protected void activate(ComponentContext ctx) {
+		configure(ctx.getProperties());
+		scheduler = new RequestScheduler(this);
+		resolver = new UserResolver(scheduler);
+	}
+
+	// the component configuration has changed
+	protected void modified(ComponentContext ctx) {
+		configure(ctx.getProperties());
+	}
+
+	protected void deactivate(ComponentContext ctx) {
+		resolver.stop();
+		scheduler.stop();
+		twitter.set(null);
+	}
+
+	private void configure(Dictionary<?, ?> properties) {
+		configure(getProperty(properties, CONSUMER_KEY), getProperty(properties, CONSUMER_SECRET),
+				getProperty(properties, ACCESS_TOKEN), getProperty(properties, ACCESS_TOKEN_SECRET));
+	}
+
+	private static String getProperty(Dictionary<?, ?> properties, String key) {
+		Object value = properties.get(key);
+		return value != null ? value.toString() : DEFAULT_CREDENTIAL;
+	}
+
+	private static Twitter createTwitter(String consumerKey, String consumerSecret, String accessToken, String accessTokenSecret) {
+		ConfigurationBuilder cb = new ConfigurationBuilder();
+
+		// authentication credentials
+		cb.setOAuthConsumerKey(consumerKey);
+		cb.setOAuthConsumerSecret(consumerSecret);
+		cb.setOAuthAccessToken(accessToken);
+		cb.setOAuthAccessTokenSecret(accessTokenSecret);
+
+		// clients with the same configuration share one HTTP client (and its kept-alive connections)
+		TwitterFactory tf = new TwitterFactory(cb.build());
+
+		return tf.getInstance();
+	}
+}
@@ -0,0 +1,234 @@
+package cz.cuni.mff.d3s.nprg044.twitter.auth.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+
+import twitter4j.ResponseList;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Resolves screen names to users with as few API calls as possible.
+ *
+ * Concurrent requests for the same name share one call (single flight), and
+ * distinct names requested within a few milliseconds are looked up together
+ * by one users/lookup call of up to {@link #MAX_BATCH} names. Every caller
+ * gets its own future, so cancelling it does not affect the others.
+ */
+public class UserResolver {
+
+	// maximal number of names users/lookup accepts
+	public static final int MAX_BATCH = 100;
+
+	// how long names are gathered before they are looked up
+	private static final long BATCH_DELAY = 5;
+
+	private RequestScheduler scheduler;
+
+	// guards all fields below
+	private Object lock = new Object();
+
+	// callers waiting for a user by lower-case screen names, both in the batch and being looked up
+	private Map<String, List<RequestFuture<User>>> waiting = new HashMap<String, List<RequestFuture<User>>>();
+
+	// names not passed to the scheduler yet
+	private Set<String> batch = new LinkedHashSet<String>();
+	// the highest priority (the lowest value) requested by the callers of the batch
+	private int batchPriority;
+	// identifies the current batch, so that a late timer does not flush the next one
+	private long batchNumber;
+	private boolean stopped;
+
+	private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Twitter user resolver");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public UserResolver(RequestScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public RequestFuture<User> resolve(String screenName, int priority) {
+		String name = screenName.toLowerCase(Locale.ENGLISH);
+		RequestFuture<User> future = new RequestFuture<User>();
+
+		String[] full = null;
+		int fullPriority = 0;
+		synchronized (lock) {
+			if (stopped) {
+				future.setException(new TwitterException("The Twitter service has been stopped"));
+				return future;
+			}
+
+			List<RequestFuture<User>> callers = waiting.get(name);
+			if (callers != null) {
+				// the name is being resolved already
+				callers.add(future);
+				if (batch.contains(name)) {
+					batchPriority = Math.min(batchPriority, priority);
+				}
+				return future;
+			}
+
+			callers = new ArrayList<RequestFuture<User>>(1);
+			callers.add(future);
+			waiting.put(name, callers);
+
+			if (batch.isEmpty()) {
+				batchPriority = priority;
+				final long number = batchNumber;
+				timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush(number);
+					}
+				}, BATCH_DELAY, TimeUnit.MILLISECONDS);
+			} else {
+				batchPriority = Math.min(batchPriority, priority);
+			}
+			batch.add(name);
+
+			if (batch.size() >= MAX_BATCH) {
+				fullPriority = batchPriority;
+				full = takeBatch();
+			}
+		}
+
+		// outside the lock, the scheduler may complete the future at once
+		if (full != null) {
+			lookup(full, fullPriority);
+		}
+		return future;
+	}
+
+	/**
+	 * Fails the callers still waiting (in the batch or for a lookup), later
+	 * calls of {@link #resolve} fail right away.
+	 */
+	public void stop() {
+		List<RequestFuture<User>> dropped = new ArrayList<RequestFuture<User>>();
+		synchronized (lock) {
+			stopped = true;
+			for (List<RequestFuture<User>> callers : waiting.values()) {
+				dropped.addAll(callers);
+			}
+			waiting.clear();
+			batch.clear();
+			// a pending timer does not flush anything
+			batchNumber++;
+		}
+
+		// outside the lock, the futures may notify their owners
+		for (RequestFuture<User> future : dropped) {
+			future.setException(new TwitterException("The Twitter service has been stopped"));
+		}
+		timer.shutdownNow();
+	}
+
+	private void flush(long number) {
+		String[] names;
+		int priority;
+		synchronized (lock) {
+			if (number != batchNumber) return;
+
+			priority = batchPriority;
+			names = takeBatch();
+		}
+		if (names.length > 0) {
+			lookup(names, priority);
+		}
+	}
+
+	// names of the batch whose callers have not given up yet
+	private String[] takeBatch() {
+		batchNumber++;
+
+		Iterator<String> it = batch.iterator();
+		while (it.hasNext()) {
+			String name = it.next();
+			if (allDone(waiting.get(name))) {
+				waiting.remove(name);
+				it.remove();
+			}
+		}
+
+		String[] names = batch.toArray(new String[batch.size()]);
+		batch.clear();
+		return names;
+	}
+
+	private static boolean allDone(List<RequestFuture<User>> callers) {
+		for (RequestFuture<User> future : callers) {
+			if (!future.isDone()) return false;
+		}
+		return true;
+	}
+
+	private void lookup(final String[] names, int priority) {
+		scheduler.submit(new TwitterRequest<ResponseList<User>>(TwitterRequest.USERS_LOOKUP, priority) {
+			@Override
+			public ResponseList<User> execute(Twitter twitter) throws TwitterException {
+				return twitter.lookupUsers(names);
+			}
+		}, new RequestFuture<ResponseList<User>>() {
+			@Override
+			protected void done() {
+				completed(names, this);
+			}
+		});
+	}
+
+	private void completed(String[] names, RequestFuture<ResponseList<User>> lookup) {
+		Map<String, User> users = new HashMap<String, User>();
+		Throwable failure = null;
+		try {
+			for (User user : lookup.get()) {
+				users.put(user.getScreenName().toLowerCase(Locale.ENGLISH), user);
+			}
+		}
+		catch (ExecutionException e) {
+			failure = e.getCause();
+		}
+		catch (Exception e) {
+			// interrupted or cancelled, the callers should not wait forever
+			failure = e;
+		}
+
+		for (String name : names) {
+			List<RequestFuture<User>> callers;
+			synchronized (lock) {
+				callers = waiting.remove(name);
+			}
+			if (callers == null) continue;
+
+			User user = users.get(name);
+			for (RequestFuture<User> future : callers) {
+				if (failure != null) {
+					future.setException(failure);
+				} else if (user != null) {
+					future.set(user);
+				} else {
+					future.setException(new TwitterException("User @" + name + " does not exist"));
+				}
+			}
+		}
+	}
+}
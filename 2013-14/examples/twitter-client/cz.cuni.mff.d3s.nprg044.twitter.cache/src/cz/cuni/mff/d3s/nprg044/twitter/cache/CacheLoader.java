@@ -0,0 +1,16 @@
+package cz.cuni.mff.d3s.nprg044.twitter.cache;
+
+import twitter4j.TwitterException;
+
+/**
+ * Fetches entities missing in an {@link EntityCache}.
+ */
+public interface CacheLoader<K, V> {
+
+	/**
+	 * Fetches the entity with the given key.
+	 *
+	 * @param background true if the entry is refreshed ahead of its expiry and nobody waits for it
+	 */
+	V load(K key, boolean background) throws TwitterException;
+}
@@ -0,0 +1,82 @@
+package cz.cuni.mff.d3s.nprg044.twitter.cache;
+
+/**
+ * Snapshot of the counters of an {@link EntityCache}.
+ */
+public final class CacheStatistics {
+
+	private String name;
+	private int size;
+	private int maxSize;
+	private long hits;
+	private long misses;
+	private long loads;
+	private long loadFailures;
+	private long refreshes;
+	private long evictions;
+
+	public CacheStatistics(String name, int size, int maxSize, long hits, long misses, long loads,
+			long loadFailures, long refreshes, long evictions) {
+		this.name = name;
+		this.size = size;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.loads = loads;
+		this.loadFailures = loadFailures;
+		this.refreshes = refreshes;
+		this.evictions = evictions;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// number of entries
+	public int getSize() {
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	// lookups of missing or expired entries
+	public long getMisses() {
+		return misses;
+	}
+
+	// entities fetched because of a miss
+	public long getLoads() {
+		return loads;
+	}
+
+	public long getLoadFailures() {
+		return loadFailures;
+	}
+
+	// entries refreshed in the background before they expired
+	public long getRefreshes() {
+		return refreshes;
+	}
+
+	// entries dropped because the cache was full
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + size + "/" + maxSize + " entries, " + hits + " hits, " + misses + " misses, "
+				+ loads + " loads (" + loadFailures + " failed), " + refreshes + " refreshes, " + evictions + " evictions";
+	}
+}
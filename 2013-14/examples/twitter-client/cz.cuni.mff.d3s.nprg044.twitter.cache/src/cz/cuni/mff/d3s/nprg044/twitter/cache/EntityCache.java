@@ -0,0 +1,207 @@
+package cz.cuni.mff.d3s.nprg044.twitter.cache;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import twitter4j.TwitterException;
+
+/**
+ * Size-bounded cache of entities of one type.
+ *
+ * Every entry expires after its own time to live. An entry which has been read
+ * several times (a hot entry) and gets close to its expiry is refreshed in the
+ * background, so readers keep getting it without waiting for the API. The
+ * least recently used entries are evicted when the cache is full.
+ *
+ * Methods may be called from any thread.
+ */
+public class EntityCache<K, V> {
+
+	// an entry is hot when it has been read at least this many times since it was loaded
+	private static final int HOT_HITS = 2;
+
+	// hot entries are refreshed during this last part of their time to live
+	private static final double REFRESH_AHEAD = 0.2;
+
+	private static class CacheEntry<V> {
+		V value;
+		long ttl;
+		long expires;
+		int hits;
+
+		CacheEntry(V value, long ttl) {
+			this.value = value;
+			this.ttl = ttl;
+			this.expires = System.currentTimeMillis() + ttl;
+		}
+	}
+
+	private String name;
+	private int maxSize;
+	private long defaultTtl;
+	private CacheLoader<K, V> loader;
+	private Executor refresher;
+
+	// least recently used first
+	private Map<K, CacheEntry<V>> entries;
+
+	// keys being refreshed in the background
+	private Set<K> refreshing = new HashSet<K>();
+
+	private long hits;
+	private long misses;
+	private long loads;
+	private long loadFailures;
+	private long refreshes;
+	private long evictions;
+
+	/**
+	 * @param defaultTtl time to live of entries (in milliseconds) stored without their own one
+	 * @param refresher runs the background refreshes
+	 */
+	public EntityCache(String name, int maxSize, long defaultTtl, CacheLoader<K, V> loader, Executor refresher) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.defaultTtl = defaultTtl;
+		this.loader = loader;
+		this.refresher = refresher;
+
+		entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+				if (size() > EntityCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the cached entity or null if it is missing or expired. A hot entry
+	 * close to its expiry is refreshed in the background.
+	 */
+	public V getIfPresent(K key) {
+		V value;
+		boolean refresh = false;
+		synchronized (this) {
+			CacheEntry<V> entry = entries.get(key);
+			long now = System.currentTimeMillis();
+			if (entry == null || now >= entry.expires) {
+				if (entry != null) {
+					entries.remove(key);
+				}
+				misses++;
+				return null;
+			}
+
+			hits++;
+			entry.hits++;
+			value = entry.value;
+
+			if (entry.hits >= HOT_HITS && now >= entry.expires - (long) (entry.ttl * REFRESH_AHEAD)) {
+				refresh = refreshing.add(key);
+			}
+		}
+
+		if (refresh) {
+			refresh(key);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the cached entity, a missing or expired one is loaded in the calling thread.
+	 */
+	public V get(K key) throws TwitterException {
+		V value = getIfPresent(key);
+		if (value != null) {
+			return value;
+		}
+
+		try {
+			value = loader.load(key, false);
+		}
+		catch (TwitterException e) {
+			synchronized (this) {
+				loadFailures++;
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			loads++;
+		}
+		put(key, value);
+		return value;
+	}
+
+	public void put(K key, V value) {
+		put(key, value, defaultTtl);
+	}
+
+	/**
+	 * Stores the entity with its own time to live (in milliseconds).
+	 */
+	public synchronized void put(K key, V value, long ttl) {
+		entries.put(key, new CacheEntry<V>(value, ttl));
+	}
+
+	public synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(name, entries.size(), maxSize, hits, misses, loads, loadFailures, refreshes, evictions);
+	}
+
+	private void refresh(final K key) {
+		try {
+			refresher.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						V value = loader.load(key, true);
+						synchronized (EntityCache.this) {
+							refreshes++;
+							CacheEntry<V> old = entries.get(key);
+							put(key, value, old != null ? old.ttl : defaultTtl);
+						}
+					}
+					catch (TwitterException e) {
+						// the entry simply expires, the next reader loads it again
+						synchronized (EntityCache.this) {
+							loadFailures++;
+						}
+					}
+					finally {
+						synchronized (EntityCache.this) {
+							refreshing.remove(key);
+						}
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// the cache is being disposed
+			synchronized (this) {
+				refreshing.remove(key);
+			}
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package cz.cuni.mff.d3s.nprg044.twitter.cache;
+
+import java.util.List;
+
+import twitter4j.Status;
+import twitter4j.User;
+
+/**
+ * OSGi service with in-memory caches of Twitter entities shared by all bundles.
+ * Missing entities are fetched through the Twitter service.
+ */
+public interface IEntityCacheService {
+
+	/**
+	 * Returns the cache of users keyed by lower-case screen names.
+	 */
+	EntityCache<String, User> getUserCache();
+
+	/**
+	 * Returns the cache of statuses keyed by their ids.
+	 */
+	EntityCache<Long, Status> getStatusCache();
+
+	/**
+	 * Returns the current statistics of all caches.
+	 */
+	List<CacheStatistics> getStatistics();
+}
@@ -0,0 +1,130 @@
+package cz.cuni.mff.d3s.nprg044.twitter.cache.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.osgi.service.component.ComponentContext;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.ITwitterService;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.cache.CacheLoader;
+import cz.cuni.mff.d3s.nprg044.twitter.cache.CacheStatistics;
+import cz.cuni.mff.d3s.nprg044.twitter.cache.EntityCache;
+import cz.cuni.mff.d3s.nprg044.twitter.cache.IEntityCacheService;
+
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Declarative service holding the entity caches. Entities are loaded through
+ * the Twitter service, background refreshes have the lowest priority.
+ */
+public class EntityCacheService implements IEntityCacheService {
+
+	private static final int MAX_USERS = 1000;
+	private static final long USER_TTL = 5 * 60 * 1000L;
+
+	private static final int MAX_STATUSES = 5000;
+	private static final long STATUS_TTL = 5 * 60 * 1000L;
+
+	// number of threads refreshing hot entries
+	private static final int REFRESHERS = 2;
+
+	private ITwitterService twitterService;
+
+	private ExecutorService refresher;
+	private EntityCache<String, User> users;
+	private EntityCache<Long, Status> statuses;
+
+	@Override
+	public EntityCache<String, User> getUserCache() {
+		return users;
+	}
+
+	@Override
+	public EntityCache<Long, Status> getStatusCache() {
+		return statuses;
+	}
+
+	@Override
+	public List<CacheStatistics> getStatistics() {
+		List<CacheStatistics> result = new ArrayList<CacheStatistics>(2);
+		result.add(users.getStatistics());
+		result.add(statuses.getStatistics());
+		return result;
+	}
+
+	protected void activate(ComponentContext ctx) {
+		refresher = Executors.newFixedThreadPool(REFRESHERS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Entity cache refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		users = new EntityCache<String, User>("users", MAX_USERS, USER_TTL, new CacheLoader<String, User>() {
+			@Override
+			public User load(String screenName, boolean background) throws TwitterException {
+				return get(twitterService.resolveUser(screenName, getPriority(background)));
+			}
+		}, refresher);
+
+		statuses = new EntityCache<Long, Status>("statuses", MAX_STATUSES, STATUS_TTL, new CacheLoader<Long, Status>() {
+			@Override
+			public Status load(final Long id, boolean background) throws TwitterException {
+				return twitterService.execute(new TwitterRequest<Status>(TwitterRequest.STATUSES_SHOW, getPriority(background)) {
+					@Override
+					public Status execute(Twitter twitter) throws TwitterException {
+						return twitter.showStatus(id.longValue());
+					}
+				});
+			}
+		}, refresher);
+	}
+
+	protected void deactivate(ComponentContext ctx) {
+		refresher.shutdownNow();
+		users.clear();
+		statuses.clear();
+	}
+
+	public void setTwitterService(ITwitterService s) {
+		twitterService = s;
+	}
+
+	public void unsetTwitterService(ITwitterService s) {
+		if (twitterService == s) {
+			twitterService = null;
+		}
+	}
+
+	private static int getPriority(boolean background) {
+		return background ? TwitterRequest.PRIORITY_BACKGROUND : TwitterRequest.PRIORITY_INTERACTIVE;
+	}
+
+	private static <T> T get(Future<T> future) throws TwitterException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TwitterException("Interrupted while waiting for the Twitter service", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TwitterException) {
+				throw (TwitterException) cause;
+			}
+			throw new TwitterException(cause.getMessage(), cause);
+		}
+	}
+}
@@ -3,16 +3,21 @@ package cz.cuni.mff.d3s.nprg044.twitter.commands.handlers;
 import org.eclipse.core.commands.AbstractHandler;
 import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.handlers.HandlerUtil;
 
-import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterAuthUtil;
+import cz.cuni.mff.d3s.nprg044.twitter.commands.internal.TwitterClient;
 
-import twitter4j.Twitter;
 import twitter4j.TwitterException;
 import twitter4j.TwitterFactory;
 import twitter4j.User;
@@ -34,7 +39,7 @@ public class ShowUserStatusHandler extends AbstractHandler {
 		IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
 		
 		// get window shell ("window managed by the OS window manager")
-		Shell shell = window.getShell();
+		final Shell shell = window.getShell();
 		
 		// create simple input dialog
 		InputDialog inDialog = new InputDialog(shell, "Twitter status", "Write Twitter username:", "vtipy", null);
@@ -42,27 +47,53 @@ public class ShowUserStatusHandler extends AbstractHandler {
 		// open the window and check result
 		if (inDialog.open() == Dialog.OK) {
 			// get the string written by the user
-			String username = inDialog.getValue();
+			final String username = inDialog.getValue();
+			final Display display = shell.getDisplay();
 		
-			// get twitter status of the user
-			String status = getUserStatus(username);
-		
-			// show message to the user
-			MessageDialog.openInformation(shell, "Twitter Status", status);
+			// the request may wait for the rate limit, so it must not block the UI thread
+			Job job = new Job("Getting the status of @" + username + "...") {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					// get twitter status of the user
+					final String status;
+					try {
+						status = getUserStatus(username, monitor);
+					}
+					catch (OperationCanceledException e) {
+						return Status.CANCEL_STATUS;
+					}
+					if (display.isDisposed()) return Status.OK_STATUS;
+
+					// show message to the user (in the UI thread)
+					display.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							if (shell.isDisposed()) return;
+
+							if (status != null) {
+								MessageDialog.openInformation(shell, "Twitter Status", status);
+							} else {
+								MessageDialog.openError(shell, "Twitter Status", "Cannot get the status of @" + username);
+							}
+						}
+					});
+					return Status.OK_STATUS;
+				}
+			};
+			// show progress bar
+			job.setUser(true);
+			job.schedule();
 		}
 		
 		return null;
 	}
 	
-	protected String getUserStatus(String username) {
+	protected String getUserStatus(String username, IProgressMonitor monitor) {
 		String result = null;
 		
 		try {
-			// initialize twitter library and get the main handle
-            Twitter twitter = TwitterAuthUtil.getTwitterInstance();
-            
-            // get information about the user
-            User user = twitter.showUser(username);
+            // get information about the user (through the resolver shared by all views)
+            User user = TwitterClient.getUser(username, monitor);
             
             if (user.getStatus() != null) {
             	// print user's status
@@ -0,0 +1,95 @@
+package cz.cuni.mff.d3s.nprg044.twitter.commands.internal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.ITwitterService;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Declarative service component giving this bundle access to the shared Twitter client.
+ */
+public class TwitterClient {
+
+	// how often a waiting job checks whether it has been cancelled
+	private static final long CANCEL_CHECK_INTERVAL = 100;
+
+	private static volatile ITwitterService service;
+
+	/**
+	 * Returns the current shared client.
+	 *
+	 * @throws TwitterException if the Twitter service is not available
+	 */
+	public static Twitter getTwitter() throws TwitterException {
+		return getService().getTwitter();
+	}
+
+	/**
+	 * Executes the request through the scheduler of the service and waits for the result.
+	 */
+	public static <T> T execute(TwitterRequest<T> request) throws TwitterException {
+		return getService().execute(request);
+	}
+
+	/**
+	 * Resolves the screen name through the shared user resolver of the service.
+	 * The request is abandoned when the monitor is cancelled.
+	 *
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public static User getUser(String screenName, IProgressMonitor monitor) throws TwitterException {
+		Future<User> future = getService().resolveUser(screenName, TwitterRequest.PRIORITY_INTERACTIVE);
+		try {
+			while (true) {
+				try {
+					return future.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+				catch (TimeoutException e) {
+					if (monitor.isCanceled()) {
+						future.cancel(false);
+						throw new OperationCanceledException();
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TwitterException("Interrupted while resolving @" + screenName, e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TwitterException) {
+				throw (TwitterException) cause;
+			}
+			throw new TwitterException(cause.getMessage(), cause);
+		}
+	}
+
+	private static ITwitterService getService() throws TwitterException {
+		ITwitterService current = service;
+		if (current == null) {
+			throw new TwitterException("The Twitter service is not available");
+		}
+		return current;
+	}
+
+	public void setTwitterService(ITwitterService s) {
+		service = s;
+	}
+
+	public void unsetTwitterService(ITwitterService s) {
+		if (service == s) {
+			service = null;
+		}
+	}
+}
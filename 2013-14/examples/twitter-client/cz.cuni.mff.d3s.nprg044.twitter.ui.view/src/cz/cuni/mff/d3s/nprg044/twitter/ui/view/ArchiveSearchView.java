@@ -0,0 +1,156 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.TableViewerColumn;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.Text;
+import org.eclipse.ui.part.ViewPart;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchiveQuery;
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchivedStatus;
+import cz.cuni.mff.d3s.nprg044.twitter.archive.IArchiveService;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.ArchiveSearchLabelProvider;
+
+/**
+ * Searches all statuses the client has ever loaded, including those no longer shown
+ * in any timeline. The archive is searched on the disk, nothing is fetched from Twitter.
+ */
+public class ArchiveSearchView extends ViewPart {
+
+	public static final String ID = "cz.cuni.mff.d3s.nprg044.twitter.ui.view.ArchiveSearchView";
+
+	private static final String[] COLUMN_NAMES = {"date", "username", "message"};
+	private static final int[] COLUMN_WIDTHS = {110, 100, 300};
+
+	// the newest matching statuses shown at most
+	private static final int MAX_RESULTS = 200;
+
+	private Text queryBox;
+	private Label statusLabel;
+	private TableViewer viewer;
+
+	private Job searchJob;
+
+	@Override
+	public void createPartControl(Composite parent) {
+		GridLayout layout = new GridLayout(1, true);
+		parent.setLayout(layout);
+
+		queryBox = new Text(parent, SWT.SINGLE | SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL);
+		queryBox.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		queryBox.setMessage("Search archive (words, OR, -word, from:user, since:yyyy-mm-dd, until:yyyy-mm-dd)");
+		// the query is run on Enter
+		queryBox.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				search(queryBox.getText());
+			}
+		});
+
+		statusLabel = new Label(parent, SWT.NONE);
+		statusLabel.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		viewer = new TableViewer(parent, SWT.SINGLE | SWT.H_SCROLL | SWT.V_SCROLL | SWT.BORDER);
+		for (int i = 0; i < COLUMN_NAMES.length; i++) {
+			TableViewerColumn tvColumn = new TableViewerColumn(viewer, SWT.NULL);
+			TableColumn column = tvColumn.getColumn();
+			column.setWidth(COLUMN_WIDTHS[i]);
+			column.setText(COLUMN_NAMES[i]);
+		}
+		viewer.setContentProvider(ArrayContentProvider.getInstance());
+		viewer.setLabelProvider(new ArchiveSearchLabelProvider());
+		viewer.setInput(Collections.emptyList());
+		viewer.getControl().setLayoutData(new GridData(GridData.FILL_BOTH));
+		viewer.getTable().setLinesVisible(true);
+		viewer.getTable().setHeaderVisible(true);
+
+		getSite().setSelectionProvider(viewer);
+	}
+
+	private void search(String text) {
+		if (searchJob != null) {
+			searchJob.cancel();
+		}
+
+		final ArchiveQuery query = ArchiveQuery.parse(text);
+		if (query.isEmpty()) {
+			viewer.setInput(Collections.emptyList());
+			statusLabel.setText("");
+			return;
+		}
+
+		final Display display = viewer.getControl().getDisplay();
+		searchJob = new Job("Searching archive...") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				IArchiveService archive = TwitterClient.getArchive();
+				if (archive == null) {
+					show(display, this, Collections.<ArchivedStatus>emptyList(), "The archive is not available");
+					return Status.OK_STATUS;
+				}
+
+				try {
+					List<ArchivedStatus> result = archive.search(query, MAX_RESULTS);
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					String message = result.size() < MAX_RESULTS
+							? result.size() + " of " + archive.getSize() + " archived messages"
+							: "The newest " + MAX_RESULTS + " matching messages";
+					show(display, this, result, message);
+				}
+				catch (IOException e) {
+					show(display, this, Collections.<ArchivedStatus>emptyList(), "Search failed: " + e.getMessage());
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		searchJob.schedule();
+	}
+
+	private void show(Display display, final Job job, final List<ArchivedStatus> result, final String message) {
+		if (display.isDisposed()) return;
+
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				// a newer search may have been started meanwhile
+				if (viewer.getControl().isDisposed() || job != searchJob) return;
+
+				viewer.setInput(result);
+				statusLabel.setText(message);
+			}
+		});
+	}
+
+	@Override
+	public void setFocus() {
+		queryBox.setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		if (searchJob != null) {
+			searchJob.cancel();
+		}
+		super.dispose();
+	}
+}
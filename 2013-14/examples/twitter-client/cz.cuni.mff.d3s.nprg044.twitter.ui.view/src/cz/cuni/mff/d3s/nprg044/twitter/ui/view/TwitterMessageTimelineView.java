@@ -1,21 +1,31 @@
 package cz.cuni.mff.d3s.nprg044.twitter.ui.view;
 
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.IMenuListener;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.action.Separator;
+import org.eclipse.jface.viewers.IContentProvider;
+import org.eclipse.jface.viewers.IOpenListener;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.OpenEvent;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.FocusAdapter;
 import org.eclipse.swt.events.FocusEvent;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.ProgressBar;
+import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.ISelectionListener;
@@ -23,9 +33,16 @@ import org.eclipse.ui.IWorkbenchActionConstants;
 import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.ui.part.ViewPart;
 
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.FollowsNode;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.UserNode;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.refresh.RefreshTask;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowSorter;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.TimelineGap;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.MergedTimelineContentProvider;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.MessageTimelineContentProvider;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.MessageTimelineLabelProvider;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.MessageTimelineRenderer;
 
 /**
  * A class implementing our view.
@@ -35,12 +52,21 @@ public class TwitterMessageTimelineView extends ViewPart implements ISelectionLi
 
 	private static final String[] COLUMN_NAMES = {"#", "username", "message"};
 	private static final int[] COLUMN_WIDTHS = {30, 100, 200};
+	private static final int MESSAGE_COLUMN = 2;
+	// columns sort the rows by these keys
+	private static final int[] COLUMN_SORT_KEYS = {RowSorter.TIME, RowSorter.AUTHOR, RowSorter.TEXT};
 
 	public static final String ID = "cz.cuni.mff.d3s.nprg044.twitter.ui.view.MessageTimelineView";
 
 	private Text searchBox;
+	private Text filterBox;
 	private TableViewer viewer;
+	private MessageTimelineContentProvider contentProvider;
+	// used instead of the content provider above while statuses of more users are shown
+	private MergedTimelineContentProvider mergedProvider;
 	private ProgressBar progressBar;
+	private Action streamAction;
+	private RefreshTask refreshTask;
 
 
 	public TwitterMessageTimelineView() {		
@@ -69,32 +95,62 @@ public class TwitterMessageTimelineView extends ViewPart implements ISelectionLi
 			public void focusGained(FocusEvent e) {				
 				if (viewer.getInput() != searchBox) {
 					// update input for the viewer
-					viewer.setInput(searchBox);
+					showUserTimeline(searchBox);
 				}
 			}
 		});
 		
+		// filter of the loaded messages, applied as the user types
+		filterBox = new Text(parent, SWT.SINGLE | SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL);
+		filterBox.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		filterBox.setMessage("Filter loaded messages (words, @mentions, #hashtags)");
+		filterBox.addModifyListener(new ModifyListener() {
+			@Override
+			public void modifyText(ModifyEvent e) {
+				applyFilter();
+			}
+		});
+		
 		// horizontal progress bar
 		progressBar = new ProgressBar(parent, SWT.HORIZONTAL);
 		progressBar.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 	
 		// create a table viewer control (JFace)
 		// it has a border and scroll bars 
-		viewer = new TableViewer(parent, SWT.SINGLE | SWT.H_SCROLL | SWT.V_SCROLL | SWT.BORDER);
+		// the table is virtual -> items are created only for the visible rows
+		// and the content provider supplies their data in a lazy manner
+		viewer = new TableViewer(parent, SWT.SINGLE | SWT.H_SCROLL | SWT.V_SCROLL | SWT.BORDER | SWT.VIRTUAL);
+		viewer.setUseHashlookup(true);
 	
 		// add columns into the table
 		createColumns(viewer);
 
 		// set provider of data in the columns
-		viewer.setContentProvider(new MessageTimelineContentProvider(progressBar));
+		contentProvider = new MessageTimelineContentProvider(progressBar);
+		mergedProvider = new MergedTimelineContentProvider(progressBar);
+		viewer.setContentProvider(contentProvider);
 		
 		// set provider of the column labels
-		viewer.setLabelProvider(new MessageTimelineLabelProvider());
+		viewer.setLabelProvider(new MessageTimelineLabelProvider(viewer));
+		
+		// texts of the messages are wrapped and their mentions, hashtags and links styled
+		new MessageTimelineRenderer(viewer.getTable(), MESSAGE_COLUMN);
 		
 		// set input of the content provider
 		// viewer should generate the table based on the content of the search box
 		viewer.setInput(searchBox);
 		
+		// opening (double-click, Enter) a gap row fetches the missing statuses
+		viewer.addOpenListener(new IOpenListener() {
+			@Override
+			public void open(OpenEvent event) {
+				Object o = ((IStructuredSelection) event.getSelection()).getFirstElement();
+				if (o instanceof TimelineGap) {
+					contentProvider.expandGap((TimelineGap) o);
+				}
+			}
+		});
+		
 		// getControl() returns the underlying SWT widget
 		// fill the available horizontal and vertical space
 		viewer.getControl().setLayoutData(new GridData(GridData.FILL_BOTH));
@@ -112,6 +168,32 @@ public class TwitterMessageTimelineView extends ViewPart implements ISelectionLi
 				
 		// we need to register the context menu first to allow contributions via extension points
 		createContextMenu();
+		
+		createToolBar();
+		
+		// new messages are fetched periodically, rarely while the view is hidden
+		refreshTask = new RefreshTask("Message timeline", TwitterRequest.USER_TIMELINE, this) {
+			@Override
+			protected boolean refresh() {
+				if (viewer.getContentProvider() == mergedProvider) {
+					return mergedProvider.autoRefresh();
+				}
+				return contentProvider.autoRefresh();
+			}
+		};
+		refreshTask.start(TwitterViewPlugin.getDefault().getRefreshScheduler());
+	}
+	
+	private void createToolBar() {
+		// new messages are pushed by the streaming API instead of being fetched on refresh
+		streamAction = new Action("Stream", IAction.AS_CHECK_BOX) {
+			@Override
+			public void run() {
+				contentProvider.setStreaming(isChecked());
+			}
+		};
+		streamAction.setToolTipText("Stream new messages of the shown user");
+		getViewSite().getActionBars().getToolBarManager().add(streamAction);
 	}
 	
 	private void createContextMenu() {
@@ -143,6 +225,15 @@ public class TwitterMessageTimelineView extends ViewPart implements ISelectionLi
 			column.setWidth(COLUMN_WIDTHS[i]);
 			column.setText(COLUMN_NAMES[i]);
 			
+			// clicking the header sorts the loaded messages by the column
+			final int sortKey = COLUMN_SORT_KEYS[i];
+			column.addSelectionListener(new SelectionAdapter() {
+				@Override
+				public void widgetSelected(SelectionEvent e) {
+					sortBy((TableColumn) e.widget, sortKey);
+				}
+			});
+			
 			// NOTE
 			// it is also possible to register separated cell providers 
 			// using the method TableViewerColumn.setLabelProvider
@@ -150,6 +241,32 @@ public class TwitterMessageTimelineView extends ViewPart implements ISelectionLi
 		}		
 	}
 	
+	/*
+	 * Sorts the rows by the column, in the ascending order first and then in the
+	 * descending one. The newest messages first is the order of the timeline.
+	 */
+	private void sortBy(TableColumn column, int sortKey) {
+		// merged timelines are shown only newest first
+		if (viewer.getContentProvider() != contentProvider) return;
+		
+		Table table = viewer.getTable();
+		boolean ascending = table.getSortColumn() != column || table.getSortDirection() != SWT.UP;
+		if (sortKey == RowSorter.TIME && !ascending) {
+			clearSort();
+			return;
+		}
+		
+		contentProvider.setSort(sortKey, ascending);
+		table.setSortColumn(column);
+		table.setSortDirection(ascending ? SWT.UP : SWT.DOWN);
+	}
+	
+	private void clearSort() {
+		contentProvider.setSort(-1, false);
+		viewer.getTable().setSortColumn(null);
+		viewer.getTable().setSortDirection(SWT.NONE);
+	}
+	
 	/**
 	 *  This part has the focus now (in the workbench).
 	 *  It must assign focus to one control inside it.
@@ -165,26 +282,66 @@ public class TwitterMessageTimelineView extends ViewPart implements ISelectionLi
 		if (!selection.isEmpty() && selection instanceof IStructuredSelection) {
 			Object o = ((IStructuredSelection) selection).getFirstElement();
 			if (o instanceof UserNode) {
-				viewer.setInput(o);
+				showUserTimeline(o);
 				if (!searchBox.isDisposed()) {
 					searchBox.setText(((UserNode) o).getScreenName());
 				}
+			} else if (o instanceof FollowsNode) {
+				// statuses of all followed users in one table
+				showMergedTimeline(((FollowsNode) o).getScreenNames());
 			}
 		}
 		else {
-			viewer.setInput(searchBox);
+			showUserTimeline(searchBox);
+		}
+	}
+
+	private void showUserTimeline(Object input) {
+		setInput(contentProvider, input);
+		streamAction.setEnabled(true);
+	}
+
+	private void showMergedTimeline(String[] screenNames) {
+		setInput(mergedProvider, screenNames);
+		// only a single user timeline can be streamed or sorted
+		streamAction.setEnabled(false);
+		clearSort();
+	}
+
+	private void setInput(IContentProvider provider, Object input) {
+		if (viewer.getContentProvider() != provider) {
+			// the current provider lets go of its input first, the viewer disposes it then
+			// (it only stops its jobs, so it can be used again later)
+			viewer.setInput(null);
+			viewer.setContentProvider(provider);
+		}
+		viewer.setInput(input);
+		applyFilter();
+	}
+
+	private void applyFilter() {
+		if (viewer.getContentProvider() == mergedProvider) {
+			mergedProvider.setFilter(filterBox.getText());
+		} else {
+			contentProvider.setFilter(filterBox.getText());
 		}
 	}
 	
 	@Override
 	public void dispose() {		
+		if (refreshTask != null) {
+			refreshTask.stop();
+		}
 		super.dispose();
 		// unregister the listener
 		getSite().getWorkbenchWindow().getSelectionService().removeSelectionListener(this);
 	}
 	
 	public void cleanTimeline() {
+		if (viewer.getInput() != searchBox) {
+			showUserTimeline(searchBox);
+		}
 		searchBox.setText("");
-		viewer.refresh();
+		contentProvider.refreshTimeline();
 	}
 }
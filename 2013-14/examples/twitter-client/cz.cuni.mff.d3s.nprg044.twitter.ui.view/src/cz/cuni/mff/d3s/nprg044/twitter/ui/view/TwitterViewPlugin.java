@@ -1,8 +1,19 @@
 package cz.cuni.mff.d3s.nprg044.twitter.ui.view;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars.AvatarCache;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars.AvatarDiskCache;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live.TimelineModelRegistry;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.refresh.RefreshScheduler;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.store.LocalStore;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -13,6 +24,21 @@ public class TwitterViewPlugin extends AbstractUIPlugin {
 
 	// The shared instance
 	private static TwitterViewPlugin plugin;
+
+	// limits of the profile image cache (about 500 images of 64x64 pixels)
+	private static final int MAX_AVATARS = 500;
+	private static final long MAX_AVATAR_BYTES = 8 * 1024 * 1024;
+
+	// profile images shared by all views
+	private AvatarCache avatarCache;
+	// downloaded profile images kept between sessions
+	private AvatarDiskCache avatarDiskCache;
+	// statuses, users and timeline checkpoints kept between sessions
+	private LocalStore localStore;
+	// live timelines shared by all views
+	private TimelineModelRegistry timelineModels;
+	// periodic refreshes of the views
+	private RefreshScheduler refreshScheduler;
 	
 	public TwitterViewPlugin() {
 	}
@@ -20,9 +46,40 @@ public class TwitterViewPlugin extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+
+		// the store is scanned in the background, so that the first view does not wait for it
+		Job job = new Job("Opening the local store...") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				if (plugin == TwitterViewPlugin.this) {
+					getLocalStore();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
 	}
 
 	public void stop(BundleContext context) throws Exception {
+		if (refreshScheduler != null) {
+			refreshScheduler.dispose();
+			refreshScheduler = null;
+		}
+		if (timelineModels != null) {
+			timelineModels.dispose();
+			timelineModels = null;
+		}
+		if (avatarCache != null) {
+			avatarCache.dispose();
+			avatarCache = null;
+		}
+		synchronized (this) {
+			if (localStore != null) {
+				localStore.close();
+				localStore = null;
+			}
+		}
 		plugin = null;
 		super.stop(context);
 	}
@@ -33,4 +90,56 @@ public class TwitterViewPlugin extends AbstractUIPlugin {
 	public static TwitterViewPlugin getDefault() {
 		return plugin;
 	}
+
+	/**
+	 * Returns the cache of profile images, it must be used in the UI thread only.
+	 */
+	public AvatarCache getAvatarCache() {
+		if (avatarCache == null) {
+			avatarCache = new AvatarCache(PlatformUI.getWorkbench().getDisplay(), MAX_AVATARS, MAX_AVATAR_BYTES);
+		}
+		return avatarCache;
+	}
+
+	/**
+	 * Returns the live timelines shared by all views, they must be used in the UI thread only.
+	 */
+	public TimelineModelRegistry getTimelineModels() {
+		if (timelineModels == null) {
+			timelineModels = new TimelineModelRegistry(PlatformUI.getWorkbench().getDisplay());
+		}
+		return timelineModels;
+	}
+
+	/**
+	 * Returns the scheduler of periodic refreshes of the views, it must be used in the UI thread only.
+	 */
+	public RefreshScheduler getRefreshScheduler() {
+		if (refreshScheduler == null) {
+			refreshScheduler = new RefreshScheduler(PlatformUI.getWorkbench().getDisplay());
+		}
+		return refreshScheduler;
+	}
+
+	/**
+	 * Returns the disk cache of downloaded profile images.
+	 */
+	public synchronized AvatarDiskCache getAvatarDiskCache() {
+		if (avatarDiskCache == null) {
+			avatarDiskCache = new AvatarDiskCache(getStateLocation().append("avatars").toFile());
+		}
+		return avatarDiskCache;
+	}
+
+	/**
+	 * Returns the local store of statuses, users and timeline checkpoints. It is
+	 * opened in the background when the plug-in starts, so it should not be used
+	 * in the UI thread.
+	 */
+	public synchronized LocalStore getLocalStore() {
+		if (localStore == null) {
+			localStore = new LocalStore(getStateLocation().append("store").toFile());
+		}
+		return localStore;
+	}
 }
@@ -9,6 +9,8 @@ import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.part.ViewPart;
 
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.refresh.RefreshTask;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.UserInfoContentProvider;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers.UserInfoLabelProvider;
 
@@ -19,6 +21,8 @@ public class UserViewPart extends ViewPart {
 	private Text searchBox;
 	private TreeViewer viewer;
 	private ProgressBar progressBar;
+	private UserInfoContentProvider contentProvider;
+	private RefreshTask refreshTask;
 	
 	
 	public UserViewPart() {
@@ -37,7 +41,8 @@ public class UserViewPart extends ViewPart {
 		
 		// viewer contains "virtual" data -> its content provider returns the actual data in a lazy manner
 		viewer = new TreeViewer(parent, SWT.SINGLE | SWT.H_SCROLL | SWT.V_SCROLL | SWT.BORDER | SWT.VIRTUAL);		
-		viewer.setContentProvider(new UserInfoContentProvider());		
+		contentProvider = new UserInfoContentProvider();
+		viewer.setContentProvider(contentProvider);		
 		viewer.setLabelProvider(new UserInfoLabelProvider());
 		
 		// the input for the content provider
@@ -46,6 +51,15 @@ public class UserViewPart extends ViewPart {
 
 		// make selection in the viewer available to others
 		getSite().setSelectionProvider(viewer);	
+		
+		// the shown user is updated periodically, rarely while the view is hidden
+		refreshTask = new RefreshTask("User info", TwitterRequest.USERS_LOOKUP, this) {
+			@Override
+			protected boolean refresh() {
+				return contentProvider.autoRefresh();
+			}
+		};
+		refreshTask.start(TwitterViewPlugin.getDefault().getRefreshScheduler());
 	}
 
 	@Override
@@ -53,4 +67,12 @@ public class UserViewPart extends ViewPart {
 		this.viewer.getControl().setFocus();
 	}
 
+	@Override
+	public void dispose() {
+		if (refreshTask != null) {
+			refreshTask.stop();
+		}
+		super.dispose();
+	}
+
 }
@@ -3,18 +3,22 @@ package cz.cuni.mff.d3s.nprg044.twitter.ui.view.adapters;
 import org.eclipse.core.runtime.IAdapterFactory;
 import org.eclipse.ui.views.properties.IPropertySource;
 
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusEntities;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusRow;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.properties.TwitterStatusPropertySource;
 
-import twitter4j.Status;
-
 public class TwitterAdapterFactory implements IAdapterFactory {
 
-	private static final Class[] SUPPORTED_ADAPTERS = { IPropertySource.class };
+	private static final Class[] SUPPORTED_ADAPTERS = { IPropertySource.class, StatusEntities.class };
 
 	@Override
 	public Object getAdapter(Object adaptableObject, Class adapterType) {
 		if  (IPropertySource.class.equals(adapterType)) {
-			return new TwitterStatusPropertySource((Status) adaptableObject);
+			return new TwitterStatusPropertySource((StatusRow) adaptableObject);
+		}
+		if (StatusEntities.class.equals(adapterType)) {
+			// mentions, hashtags and links computed when the status was loaded
+			return ((StatusRow) adaptableObject).getEntities();
 		}
 		return null;
 	}
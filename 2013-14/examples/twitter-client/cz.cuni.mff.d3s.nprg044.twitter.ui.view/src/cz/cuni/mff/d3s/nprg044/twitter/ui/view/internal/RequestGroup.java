@@ -0,0 +1,123 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Independent requests made together.
+ *
+ * The requests are queued in the scheduler as soon as they are added, so they
+ * run concurrently. {@link #join} is the only place where the caller waits:
+ * it returns when all of them have finished, or it fails as soon as one of
+ * them fails or the monitor is cancelled. The requests still running are
+ * cancelled then, so none of them outlives the group.
+ */
+public class RequestGroup {
+
+	// how often the monitor is checked while waiting
+	private static final long CANCEL_CHECK_INTERVAL = 100;
+
+	private List<Future<?>> futures = new ArrayList<Future<?>>();
+
+	public <T> Future<T> submit(TwitterRequest<T> request) throws TwitterException {
+		return add(TwitterClient.submit(request));
+	}
+
+	public Future<User> resolveUser(String screenName, int priority) throws TwitterException {
+		return add(TwitterClient.resolveUser(screenName, priority));
+	}
+
+	/**
+	 * Waits until all requests finish.
+	 *
+	 * @throws TwitterException the failure of the first failed request
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public void join(IProgressMonitor monitor) throws TwitterException {
+		try {
+			for (Future<?> future : futures) {
+				while (true) {
+					try {
+						future.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+						break;
+					}
+					catch (TimeoutException e) {
+						if (monitor.isCanceled()) {
+							cancel();
+							throw new OperationCanceledException();
+						}
+						// a request waited for later may have failed meanwhile
+						checkFailed();
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+			throw new TwitterException("Interrupted while waiting for the Twitter service", e);
+		}
+		catch (ExecutionException e) {
+			cancel();
+			throw toTwitterException(e);
+		}
+	}
+
+	/**
+	 * Returns the result of a request of the group after {@link #join}.
+	 */
+	public <T> T get(Future<T> future) throws TwitterException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TwitterException("Interrupted while waiting for the Twitter service", e);
+		}
+		catch (ExecutionException e) {
+			throw toTwitterException(e);
+		}
+	}
+
+	/**
+	 * Abandons all requests which have not finished yet.
+	 */
+	public void cancel() {
+		for (Future<?> future : futures) {
+			future.cancel(false);
+		}
+	}
+
+	private <T> Future<T> add(Future<T> future) {
+		futures.add(future);
+		return future;
+	}
+
+	private void checkFailed() throws InterruptedException, ExecutionException {
+		for (Future<?> future : futures) {
+			if (future.isDone() && !future.isCancelled()) {
+				future.get();
+			}
+		}
+	}
+
+	private static TwitterException toTwitterException(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof TwitterException) {
+			return (TwitterException) cause;
+		}
+		return new TwitterException(cause.getMessage(), cause);
+	}
+}
@@ -0,0 +1,288 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.Job;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.IArchiveService;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.ITwitterService;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.RateLimitBudget;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.cache.IEntityCacheService;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.store.LocalStore;
+
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Declarative service component giving this bundle access to the shared Twitter client
+ * the shared entity caches and the status archive (if they are available).
+ */
+public class TwitterClient {
+
+	// how often a waiting job checks whether it has been cancelled
+	private static final long CANCEL_CHECK_INTERVAL = 100;
+
+	// statuses older than this hardly change, they are cached for longer
+	private static final long OLD_STATUS_AGE = 24 * 60 * 60 * 1000L;
+	private static final long OLD_STATUS_TTL = 60 * 60 * 1000L;
+
+	private static volatile ITwitterService service;
+	private static volatile IEntityCacheService caches;
+	private static volatile IArchiveService archive;
+
+	/**
+	 * Returns the current shared client.
+	 *
+	 * @throws TwitterException if the Twitter service is not available
+	 */
+	public static Twitter getTwitter() throws TwitterException {
+		return getService().getTwitter();
+	}
+
+	/**
+	 * Queues the request in the scheduler of the service, the result is waited for by {@link #get}.
+	 */
+	public static <T> Future<T> submit(TwitterRequest<T> request) throws TwitterException {
+		return getService().submit(request);
+	}
+
+	/**
+	 * Executes the request through the scheduler of the service and waits for the result.
+	 * The request is abandoned when the monitor is cancelled.
+	 *
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public static <T> T execute(TwitterRequest<T> request, IProgressMonitor monitor) throws TwitterException {
+		return get(getService().submit(request), monitor);
+	}
+
+	/**
+	 * Returns the cached user, the user stored on the disk (which is then updated
+	 * in the background) or resolves the screen name (see {@link ITwitterService#resolveUser})
+	 * and waits for the user.
+	 *
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public static User getUser(String screenName, int priority, IProgressMonitor monitor) throws TwitterException {
+		User user = getCachedUser(screenName);
+		if (user != null) {
+			return user;
+		}
+
+		LocalStore store = TwitterViewPlugin.getDefault().getLocalStore();
+		user = store.getUser(screenName);
+		if (user != null) {
+			cacheUser(user);
+			updateStoredUser(screenName);
+			return user;
+		}
+
+		user = get(getService().resolveUser(screenName, priority), monitor);
+		cacheUser(user);
+		store.putUser(user);
+		return user;
+	}
+
+	// fetches the current state of a user shown from the disk
+	private static void updateStoredUser(final String screenName) {
+		Job job = new Job("Updating @" + screenName + "...") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					User user = get(getService().resolveUser(screenName, TwitterRequest.PRIORITY_BACKGROUND), monitor);
+					cacheUser(user);
+					TwitterViewPlugin.getDefault().getLocalStore().putUser(user);
+				}
+				catch (TwitterException e) {
+					// the stored user is used until the next attempt
+				}
+				catch (OperationCanceledException e) {
+					return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+				}
+				return org.eclipse.core.runtime.Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * Returns the cached user or the user stored on the disk, null if the user
+	 * is not known. No request is made.
+	 */
+	public static User getKnownUser(String screenName) {
+		User user = getCachedUser(screenName);
+		if (user == null) {
+			user = TwitterViewPlugin.getDefault().getLocalStore().getUser(screenName);
+			if (user != null) {
+				cacheUser(user);
+			}
+		}
+		return user;
+	}
+
+	/**
+	 * Returns the cached user or null.
+	 */
+	public static User getCachedUser(String screenName) {
+		IEntityCacheService current = caches;
+		return current != null ? current.getUserCache().getIfPresent(screenName.toLowerCase(Locale.ENGLISH)) : null;
+	}
+
+	public static void cacheUser(User user) {
+		IEntityCacheService current = caches;
+		if (current != null) {
+			current.getUserCache().put(user.getScreenName().toLowerCase(Locale.ENGLISH), user);
+		}
+	}
+
+	/**
+	 * Returns the cached status or null.
+	 */
+	public static Status getCachedStatus(long id) {
+		IEntityCacheService current = caches;
+		return current != null ? current.getStatusCache().getIfPresent(id) : null;
+	}
+
+	/**
+	 * Caches the statuses together with their authors.
+	 */
+	public static void cacheStatuses(List<Status> statuses) {
+		IEntityCacheService current = caches;
+		if (current == null) return;
+
+		long now = System.currentTimeMillis();
+		for (Status status : statuses) {
+			if (now - status.getCreatedAt().getTime() > OLD_STATUS_AGE) {
+				current.getStatusCache().put(status.getId(), status, OLD_STATUS_TTL);
+			} else {
+				current.getStatusCache().put(status.getId(), status);
+			}
+			if (status.getUser() != null) {
+				cacheUser(status.getUser());
+			}
+		}
+	}
+
+	/**
+	 * Adds the statuses to the archive, if it is available. The archive indexes
+	 * them in the background, the caller never waits.
+	 */
+	public static void archiveStatuses(List<Status> statuses) {
+		IArchiveService current = archive;
+		if (current != null) {
+			current.add(statuses);
+		}
+	}
+
+	/**
+	 * Returns the status archive or null if it is not available.
+	 */
+	public static IArchiveService getArchive() {
+		return archive;
+	}
+
+	/**
+	 * Starts resolving the screen name, the result is waited for by {@link #get}.
+	 */
+	public static Future<User> resolveUser(String screenName, int priority) throws TwitterException {
+		return getService().resolveUser(screenName, priority);
+	}
+
+	/**
+	 * Waits for the result of a request. The request is abandoned when the monitor is cancelled.
+	 *
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public static <T> T get(Future<T> future, IProgressMonitor monitor) throws TwitterException {
+		try {
+			while (true) {
+				try {
+					return future.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+				catch (TimeoutException e) {
+					if (monitor.isCanceled()) {
+						future.cancel(false);
+						throw new OperationCanceledException();
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TwitterException("Interrupted while waiting for the Twitter service", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TwitterException) {
+				throw (TwitterException) cause;
+			}
+			throw new TwitterException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Executes the request through the scheduler of the service and waits for the result.
+	 */
+	public static <T> T execute(TwitterRequest<T> request) throws TwitterException {
+		return getService().execute(request);
+	}
+
+	/**
+	 * Returns the budget of the given endpoint family, null if the service is not available.
+	 */
+	public static RateLimitBudget getBudget(String endpoint) {
+		ITwitterService current = service;
+		return current != null ? current.getBudget(endpoint) : null;
+	}
+
+	private static ITwitterService getService() throws TwitterException {
+		ITwitterService current = service;
+		if (current == null) {
+			throw new TwitterException("The Twitter service is not available");
+		}
+		return current;
+	}
+
+	public void setTwitterService(ITwitterService s) {
+		service = s;
+	}
+
+	public void unsetTwitterService(ITwitterService s) {
+		if (service == s) {
+			service = null;
+		}
+	}
+
+	public void setCacheService(IEntityCacheService s) {
+		caches = s;
+	}
+
+	public void unsetCacheService(IEntityCacheService s) {
+		if (caches == s) {
+			caches = null;
+		}
+	}
+
+	public void setArchiveService(IArchiveService s) {
+		archive = s;
+	}
+
+	public void unsetArchiveService(IArchiveService s) {
+		if (archive == s) {
+			archive = null;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Profile images shared by all views, keyed by their URLs.
+ *
+ * The cache holds at most a given number of images (native handles) taking
+ * at most a given number of bytes. The least recently used images are evicted
+ * first. Images are looked up whenever a row is painted, so the visible ones
+ * are always the most recently used.
+ *
+ * The cache must be accessed from the UI thread only.
+ */
+public class AvatarCache {
+
+	private Display display;
+	private int maxImages;
+	private long maxBytes;
+
+	// in the access order, least recently used first
+	private LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(16, 0.75f, true);
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public AvatarCache(Display display, int maxImages, long maxBytes) {
+		this.display = display;
+		this.maxImages = maxImages;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cached image or null.
+	 */
+	public Image get(String url) {
+		Image image = images.get(url);
+		if (image != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return image;
+	}
+
+	/**
+	 * Adds the image to the cache, the cache becomes responsible for its disposal.
+	 */
+	public void put(String url, Image image) {
+		Image old = images.put(url, image);
+		if (old != null) {
+			bytes -= getSize(old);
+			dispose(old);
+		}
+		bytes += getSize(image);
+
+		// never evict the image which has just been added
+		Iterator<Map.Entry<String, Image>> it = images.entrySet().iterator();
+		while ((images.size() > maxImages || bytes > maxBytes) && images.size() > 1) {
+			Image eldest = it.next().getValue();
+			it.remove();
+			bytes -= getSize(eldest);
+			dispose(eldest);
+			evictions++;
+		}
+	}
+
+	public int getSize() {
+		return images.size();
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getHitCount() {
+		return hits;
+	}
+
+	public long getMissCount() {
+		return misses;
+	}
+
+	public long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Disposes all cached images, it can be called from any thread.
+	 */
+	public void dispose() {
+		if (display.isDisposed()) {
+			// images have been disposed together with the display
+			images.clear();
+			return;
+		}
+
+		display.syncExec(new Runnable() {
+			@Override
+			public void run() {
+				for (Image image : images.values()) {
+					if (!image.isDisposed()) {
+						image.dispose();
+					}
+				}
+				images.clear();
+				bytes = 0;
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "AvatarCache[images=" + images.size() + ", bytes=" + bytes + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	// evicted images can still be painted by the current paint event, dispose them later
+	private void dispose(final Image image) {
+		if (display.isDisposed()) return;
+
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (!image.isDisposed()) {
+					image.dispose();
+				}
+			}
+		});
+	}
+
+	// approximate size of the native image (32 bits per pixel)
+	private static long getSize(Image image) {
+		Rectangle bounds = image.getBounds();
+		return 4L * bounds.width * bounds.height;
+	}
+}
@@ -0,0 +1,332 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Downloaded profile images stored on the local disk.
+ *
+ * Image files are named by the SHA-1 hash of their content, so the same image
+ * is stored only once. The index maps URLs to the files together with the time
+ * of the last fetch and the HTTP validators (ETag, Last-Modified). It is an
+ * append-only log of records, the last record of a URL wins. The log is read
+ * through a memory-mapped buffer when the cache is opened and it is compacted
+ * when it grows too big.
+ *
+ * Methods may be called from any thread.
+ */
+public class AvatarDiskCache {
+
+	// images older than this are still used, but revalidated in the background
+	public static final long MAX_AGE = 24 * 60 * 60 * 1000L;
+
+	private static final String INDEX_FILE = "index";
+	private static final String IMAGE_SUFFIX = ".img";
+
+	private static final int MAGIC = 0x54415643; // "TAVC"
+	private static final int VERSION = 1;
+
+	// the index is compacted when it is bigger than this
+	private static final long MAX_INDEX_SIZE = 1024 * 1024;
+
+	/**
+	 * Index record of a single URL.
+	 */
+	public static class Entry {
+		private String hash;
+		private long fetchTime;
+		private String etag;
+		private String lastModified;
+
+		Entry(String hash, long fetchTime, String etag, String lastModified) {
+			this.hash = hash;
+			this.fetchTime = fetchTime;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public long getFetchTime() {
+			return fetchTime;
+		}
+
+		// null if the server did not send it
+		public String getETag() {
+			return etag;
+		}
+
+		// null if the server did not send it
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		public boolean isStale() {
+			return System.currentTimeMillis() - fetchTime > MAX_AGE;
+		}
+	}
+
+	private File directory;
+	private File indexFile;
+
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	// length of the valid part of the index, a crash may leave a broken record after it
+	private long indexLength;
+
+	public AvatarDiskCache(File directory) {
+		this.directory = directory;
+		this.indexFile = new File(directory, INDEX_FILE);
+
+		directory.mkdirs();
+		try {
+			if (indexFile.length() > MAX_INDEX_SIZE) {
+				compact();
+			} else {
+				readIndex();
+			}
+		}
+		catch (IOException e) {
+			// start with an empty cache, the images are downloaded again
+			entries.clear();
+			indexFile.delete();
+			indexLength = 0;
+		}
+	}
+
+	public synchronized Entry getEntry(String url) {
+		return entries.get(url);
+	}
+
+	/**
+	 * Returns the stored image or null if it is missing.
+	 */
+	public byte[] read(Entry entry) {
+		File file = getImageFile(entry.hash);
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				return readFully(in, (int) file.length());
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the downloaded image of the given URL.
+	 */
+	public synchronized Entry store(String url, byte[] image, String etag, String lastModified) throws IOException {
+		String hash = hash(image);
+		File file = getImageFile(hash);
+		if (!file.exists()) {
+			// write a temporary file first, so that a broken image is never used
+			File temp = new File(directory, hash + ".tmp");
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(image);
+			}
+			finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Cannot store " + file);
+			}
+		}
+
+		Entry entry = new Entry(hash, System.currentTimeMillis(), etag, lastModified);
+		append(url, entry);
+		return entry;
+	}
+
+	/**
+	 * Records that the stored image of the given URL is still valid.
+	 */
+	public synchronized void touch(String url) throws IOException {
+		Entry old = entries.get(url);
+		if (old != null) {
+			append(url, new Entry(old.hash, System.currentTimeMillis(), old.etag, old.lastModified));
+		}
+	}
+
+	private void append(String url, Entry entry) throws IOException {
+		boolean header = indexLength == 0;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		if (header) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		writeRecord(out, url, entry);
+
+		// a single write, so that a crash leaves at most one broken record at the end
+		RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+		try {
+			file.setLength(indexLength);
+			file.seek(indexLength);
+			file.write(bytes.toByteArray());
+		}
+		finally {
+			file.close();
+		}
+
+		indexLength += bytes.size();
+		entries.put(url, entry);
+	}
+
+	private void readIndex() throws IOException {
+		if (!indexFile.exists()) return;
+
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			readRecords(buffer);
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	// rewrites the index with the last record of every URL and deletes unused images
+	private void compact() throws IOException {
+		InputStream in = new FileInputStream(indexFile);
+		try {
+			readRecords(ByteBuffer.wrap(readFully(in, (int) indexFile.length())));
+		}
+		finally {
+			in.close();
+		}
+
+		File temp = new File(directory, INDEX_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				writeRecord(out, e.getKey(), e.getValue());
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		if (!indexFile.delete() || !temp.renameTo(indexFile)) {
+			throw new IOException("Cannot replace " + indexFile);
+		}
+		indexLength = indexFile.length();
+
+		Set<String> used = new HashSet<String>();
+		for (Entry entry : entries.values()) {
+			used.add(entry.hash + IMAGE_SUFFIX);
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(IMAGE_SUFFIX) && !used.contains(file.getName())) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private void readRecords(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() == 0) return;
+
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Unknown format of " + indexFile);
+			}
+			indexLength = buffer.position();
+
+			while (buffer.hasRemaining()) {
+				String url = readString(buffer);
+				String hash = readString(buffer);
+				long fetchTime = buffer.getLong();
+				String etag = readString(buffer);
+				String lastModified = readString(buffer);
+
+				entries.put(url, new Entry(hash, fetchTime, emptyToNull(etag), emptyToNull(lastModified)));
+				indexLength = buffer.position();
+			}
+		}
+		catch (BufferUnderflowException e) {
+			// the last record is incomplete, ignore it
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, String url, Entry entry) throws IOException {
+		writeString(out, url);
+		writeString(out, entry.hash);
+		out.writeLong(entry.fetchTime);
+		writeString(out, entry.etag);
+		writeString(out, entry.lastModified);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = (s == null ? "" : s).getBytes("UTF-8");
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static String emptyToNull(String s) {
+		return s.length() == 0 ? null : s;
+	}
+
+	private File getImageFile(String hash) {
+		return new File(directory, hash + IMAGE_SUFFIX);
+	}
+
+	private static String hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every Java platform has to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(sizeHint, 1024));
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,211 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Downloads, decodes and scales profile images on a small pool of worker threads.
+ * Only the final image has to be created in the UI thread.
+ *
+ * A URL is not requested again while it is being loaded, the listener is notified
+ * in the UI thread when the image data is ready (or null if it could not be loaded).
+ *
+ * Images found in the disk cache are used without asking the server. Stale ones
+ * are revalidated afterwards and the listener is notified again when it is done.
+ */
+public class AvatarLoader {
+
+	// maximal number of images downloaded at the same time
+	private static final int WORKERS = 4;
+
+	private static final int TIMEOUT = 10000;
+
+	public interface Listener {
+		/**
+		 * @param stale whether the image is being revalidated, {@link #avatarRevalidated} follows then
+		 */
+		void avatarLoaded(String url, ImageData imageData, boolean stale);
+
+		/**
+		 * @param imageData the new image, null if it has not changed (or cannot be fetched now)
+		 */
+		void avatarRevalidated(String url, ImageData imageData);
+	}
+
+	private Display display;
+	private Listener listener;
+	private int size;
+	// null if images are not stored on the disk
+	private AvatarDiskCache diskCache;
+
+	// URLs being loaded, accessed from the UI thread only
+	private Set<String> requested = new HashSet<String>();
+
+	private ExecutorService executor = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Twitter avatar loader");
+			// do not block the shutdown of the workbench
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private volatile boolean disposed;
+
+	public AvatarLoader(Display display, int size, AvatarDiskCache diskCache, Listener listener) {
+		this.display = display;
+		this.size = size;
+		this.diskCache = diskCache;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts loading of the image unless it is being loaded already.
+	 */
+	public void load(final String url) {
+		if (disposed || !requested.add(url)) return;
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!disposed) {
+					loadImage(url);
+				}
+			}
+		});
+	}
+
+	// called in a worker thread
+	private void loadImage(String url) {
+		AvatarDiskCache.Entry entry = diskCache != null ? diskCache.getEntry(url) : null;
+		if (entry != null) {
+			byte[] data = diskCache.read(entry);
+			ImageData imageData = data != null ? decode(data) : null;
+			if (imageData != null) {
+				notifyListener(url, imageData, entry.isStale());
+
+				if (entry.isStale()) {
+					// null if the image has not changed (or cannot be fetched now)
+					data = download(url, entry);
+					notifyRevalidated(url, data != null ? decode(data) : null);
+				}
+				return;
+			}
+		}
+
+		// the stored image is missing or broken, download it without validators
+		byte[] data = download(url, null);
+		notifyListener(url, data != null ? decode(data) : null, false);
+	}
+
+	// returns null if the stored image is still valid or the image cannot be downloaded
+	private byte[] download(String url, AvatarDiskCache.Entry entry) {
+		try {
+			URLConnection connection = new URL(url).openConnection();
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			if (entry != null && entry.getETag() != null) {
+				connection.setRequestProperty("If-None-Match", entry.getETag());
+			}
+			if (entry != null && entry.getLastModified() != null) {
+				connection.setRequestProperty("If-Modified-Since", entry.getLastModified());
+			}
+
+			try {
+				if (connection instanceof HttpURLConnection
+						&& ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					if (diskCache != null) {
+						diskCache.touch(url);
+					}
+					return null;
+				}
+
+				InputStream in = connection.getInputStream();
+				byte[] data;
+				try {
+					data = AvatarDiskCache.readFully(in, connection.getContentLength());
+				}
+				finally {
+					in.close();
+				}
+
+				if (diskCache != null) {
+					try {
+						diskCache.store(url, data, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+					}
+					catch (IOException e) {
+						// the image is only not cached
+					}
+				}
+				return data;
+			}
+			finally {
+				if (connection instanceof HttpURLConnection) {
+					((HttpURLConnection) connection).disconnect();
+				}
+			}
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	// returns null if the data is not a supported image
+	private ImageData decode(byte[] data) {
+		try {
+			ImageData imageData = new ImageData(new ByteArrayInputStream(data));
+			if (imageData.width == size && imageData.height == size) {
+				return imageData;
+			}
+			return AvatarScaler.scale(imageData, size, size);
+		}
+		catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private void notifyListener(final String url, final ImageData imageData, final boolean stale) {
+		if (disposed || display.isDisposed()) return;
+
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				requested.remove(url);
+				if (!disposed) {
+					listener.avatarLoaded(url, imageData, stale);
+				}
+			}
+		});
+	}
+
+	private void notifyRevalidated(final String url, final ImageData imageData) {
+		if (disposed || display.isDisposed()) return;
+
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (!disposed) {
+					listener.avatarRevalidated(url, imageData);
+				}
+			}
+		});
+	}
+
+	public void dispose() {
+		disposed = true;
+		executor.shutdownNow();
+	}
+}
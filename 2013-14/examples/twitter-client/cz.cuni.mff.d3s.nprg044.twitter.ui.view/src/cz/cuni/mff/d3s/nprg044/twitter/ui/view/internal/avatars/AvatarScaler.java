@@ -0,0 +1,185 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Area-averaging scaling of image data.
+ *
+ * Unlike {@link ImageData#scaledTo(int, int)}, which picks the nearest pixel,
+ * every target pixel is the average of all source pixels it covers (weighted by
+ * the covered area), so downscaled images keep their details without aliasing.
+ * Colors are averaged with premultiplied alpha. It works with plain image data
+ * and therefore may be used outside the UI thread.
+ */
+public final class AvatarScaler {
+
+	private AvatarScaler() {
+	}
+
+	/**
+	 * Returns a 24-bit direct color image of the given size (with alpha data if
+	 * the source image is not opaque).
+	 */
+	public static ImageData scale(ImageData source, int width, int height) {
+		int sourceWidth = source.width;
+		int sourceHeight = source.height;
+
+		Weights columns = new Weights(sourceWidth, width);
+		Weights rows = new Weights(sourceHeight, height);
+
+		// horizontal pass: premultiplied ARGB of every source row scaled to the target width
+		float[] horizontal = new float[sourceHeight * width * 4];
+		int[] argb = new int[sourceWidth];
+		for (int y = 0; y < sourceHeight; y++) {
+			readRow(source, y, argb);
+			int offset = y * width * 4;
+			for (int x = 0; x < width; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+				for (int k = columns.start[x]; k < columns.start[x + 1]; k++) {
+					int pixel = argb[columns.index[k]];
+					float alpha = (pixel >>> 24) * columns.weight[k];
+					a += alpha;
+					r += ((pixel >> 16) & 0xFF) * alpha;
+					g += ((pixel >> 8) & 0xFF) * alpha;
+					b += (pixel & 0xFF) * alpha;
+				}
+				int i = offset + x * 4;
+				horizontal[i] = a;
+				horizontal[i + 1] = r;
+				horizontal[i + 2] = g;
+				horizontal[i + 3] = b;
+			}
+		}
+
+		// vertical pass
+		ImageData target = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF));
+		byte[] alphas = new byte[width * height];
+		boolean opaque = true;
+		int[] pixels = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+				for (int k = rows.start[y]; k < rows.start[y + 1]; k++) {
+					int i = (rows.index[k] * width + x) * 4;
+					float weight = rows.weight[k];
+					a += horizontal[i] * weight;
+					r += horizontal[i + 1] * weight;
+					g += horizontal[i + 2] * weight;
+					b += horizontal[i + 3] * weight;
+				}
+
+				int alpha = Math.round(a);
+				if (alpha < 255) {
+					opaque = false;
+				}
+				alphas[y * width + x] = (byte) alpha;
+				pixels[x] = a > 0 ? (clamp(r / a) << 16) | (clamp(g / a) << 8) | clamp(b / a) : 0;
+			}
+			target.setPixels(0, y, width, pixels, 0);
+		}
+
+		if (!opaque) {
+			target.alphaData = alphas;
+		}
+		return target;
+	}
+
+	// reads a row of the source image as non-premultiplied ARGB
+	private static void readRow(ImageData source, int y, int[] argb) {
+		int width = source.width;
+		int[] pixels = new int[width];
+		source.getPixels(0, y, width, pixels, 0);
+
+		PaletteData palette = source.palette;
+		if (palette.isDirect) {
+			for (int x = 0; x < width; x++) {
+				int pixel = pixels[x];
+				int r = shift(pixel & palette.redMask, palette.redShift);
+				int g = shift(pixel & palette.greenMask, palette.greenShift);
+				int b = shift(pixel & palette.blueMask, palette.blueShift);
+				argb[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+			}
+		} else {
+			RGB[] colors = palette.getRGBs();
+			for (int x = 0; x < width; x++) {
+				int pixel = pixels[x];
+				RGB rgb = pixel < colors.length ? colors[pixel] : colors[0];
+				argb[x] = 0xFF000000 | (rgb.red << 16) | (rgb.green << 8) | rgb.blue;
+			}
+		}
+
+		switch (source.getTransparencyType()) {
+			case SWT.TRANSPARENCY_ALPHA:
+				byte[] alphas = new byte[width];
+				source.getAlphas(0, y, width, alphas, 0);
+				for (int x = 0; x < width; x++) {
+					argb[x] = (argb[x] & 0xFFFFFF) | ((alphas[x] & 0xFF) << 24);
+				}
+				break;
+			case SWT.TRANSPARENCY_PIXEL:
+				for (int x = 0; x < width; x++) {
+					if (pixels[x] == source.transparentPixel) {
+						argb[x] = 0;
+					}
+				}
+				break;
+			case SWT.TRANSPARENCY_MASK:
+				int[] mask = new int[width];
+				source.getTransparencyMask().getPixels(0, y, width, mask, 0);
+				for (int x = 0; x < width; x++) {
+					if (mask[x] == 0) {
+						argb[x] = 0;
+					}
+				}
+				break;
+		}
+	}
+
+	private static int shift(int value, int shift) {
+		return shift < 0 ? value >>> -shift : value << shift;
+	}
+
+	private static int clamp(float value) {
+		int i = Math.round(value);
+		return i < 0 ? 0 : (i > 255 ? 255 : i);
+	}
+
+	/**
+	 * Source pixels covered by every target pixel together with their weights
+	 * (the covered part of the pixel divided by the area of the target pixel).
+	 */
+	private static class Weights {
+		// weights of the target pixel i are at positions start[i] .. start[i + 1] - 1
+		int[] start;
+		int[] index;
+		float[] weight;
+
+		Weights(int sourceSize, int targetSize) {
+			float scale = (float) sourceSize / targetSize;
+			int maxPerPixel = (int) Math.ceil(scale) + 1;
+
+			start = new int[targetSize + 1];
+			index = new int[targetSize * maxPerPixel];
+			weight = new float[targetSize * maxPerPixel];
+
+			int k = 0;
+			for (int i = 0; i < targetSize; i++) {
+				start[i] = k;
+				float from = i * scale;
+				float to = Math.min((i + 1) * scale, sourceSize);
+				for (int j = (int) from; j < to && j < sourceSize; j++) {
+					float covered = Math.min(to, j + 1) - Math.max(from, j);
+					if (covered > 0) {
+						index[k] = j;
+						weight[k] = covered / (to - from);
+						k++;
+					}
+				}
+			}
+			start[targetSize] = k;
+		}
+	}
+}
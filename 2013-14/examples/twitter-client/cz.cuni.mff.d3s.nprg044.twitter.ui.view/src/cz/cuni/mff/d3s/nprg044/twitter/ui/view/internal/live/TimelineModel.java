@@ -0,0 +1,850 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.RequestGroup;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.store.LocalStore;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream.StatusStream;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream.StatusStreamListener;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowDelta;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.TimelineGap;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.UserTimeline;
+
+import twitter4j.Paging;
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Live timeline of one user shared by all views showing the user.
+ *
+ * The model fetches the statuses for all of its listeners, so a timeline shown
+ * in more views (or workbench windows) is fetched and held in memory only once.
+ * Views ask the model for rows and it pushes every change to all of them,
+ * inserted and removed rows as a {@link RowDelta}.
+ *
+ * Statuses are fetched page by page in background jobs using max_id cursors and
+ * only a bounded window of pages around the last requested row of every
+ * listener is kept materialized. The top of the timeline is checkpointed to
+ * the local store, a timeline not known in this session is shown from the disk
+ * first and then refreshed. The store is read and written in background jobs
+ * too, evicted statuses not found in the shared cache are read from the disk
+ * before they are fetched again.
+ *
+ * While any listener wants streaming, new statuses are pushed by a
+ * {@link StatusStream} and inserted at the top in batches. The REST API is then
+ * used only to catch up with the statuses missed while the stream was not connected.
+ *
+ * Models are obtained from the {@link TimelineModelRegistry}, they are accessed
+ * from the UI thread only.
+ */
+public class TimelineModel {
+
+	// Twitter returns at most this number of the most recent statuses of a user
+	private static final int TIMELINE_LIMIT = 3200;
+
+	// number of pages kept materialized on each side of the last requested row
+	private static final int WINDOW_PAGES = 2;
+
+	// timelines refreshed and queries failed less than this ago are shown again without a request
+	private static final long RECENT_QUERY_AGE = 60 * 1000L;
+
+	private String screenName;
+	private Display display;
+	private UserTimeline timeline;
+
+	// the first page has been requested or restored from the disk
+	private boolean opened;
+	// error which stopped fetching of older statuses
+	private String tailMessage;
+	// when the first page failed, 0 if it did not
+	private long failureTime;
+	private int totalCount;
+
+	// attached listeners and the timeline rows they requested last
+	private Map<TimelineModelListener, Integer> listeners = new LinkedHashMap<TimelineModelListener, Integer>();
+	private Set<TimelineModelListener> streamingListeners = new HashSet<TimelineModelListener>();
+
+	private boolean appendScheduled;
+	private boolean refreshScheduled;
+	// ids of the first and the last row of ranges being fetched again
+	private List<long[]> reloadsScheduled = new ArrayList<long[]>();
+	// the same for ranges of evicted rows being read from the disk
+	private List<long[]> readsScheduled = new ArrayList<long[]>();
+
+	private CheckpointJob checkpointJob = new CheckpointJob();
+
+	// incremented whenever the jobs are cancelled, results of older jobs are ignored
+	private int generation;
+	private boolean disposed;
+
+	// stream of the timeline, null until the id of the user is known
+	private StatusStream stream;
+	// streamed statuses waiting until the timeline catches up with the stream
+	private List<Status> streamed = new ArrayList<Status>();
+	// statuses may be missing between the top of the timeline and the streamed ones
+	private boolean catchingUp;
+
+	private StatusStreamListener streamListener = new StatusStreamListener() {
+		@Override
+		public void statusesMissed() {
+			catchingUp = true;
+			scheduleRefresh(false);
+		}
+
+		@Override
+		public void statusesArrived(List<Status> statuses) {
+			streamed.addAll(statuses);
+			if (catchingUp) {
+				// the streamed statuses are inserted after the refresh (another attempt if it failed)
+				scheduleRefresh(false);
+			} else {
+				insertStreamed();
+			}
+		}
+	};
+
+	TimelineModel(String screenName, Display display) {
+		this.screenName = screenName;
+		this.display = display;
+		this.timeline = new UserTimeline(screenName);
+	}
+
+	public String getScreenName() {
+		return screenName;
+	}
+
+	public UserTimeline getTimeline() {
+		return timeline;
+	}
+
+	public String getTailMessage() {
+		return tailMessage;
+	}
+
+	/**
+	 * Returns the number of statuses of the user which can be fetched, 0 if it is not known.
+	 */
+	public int getTotalCount() {
+		return totalCount;
+	}
+
+	/**
+	 * Prepares the timeline for a listener which starts showing it. The first
+	 * page is fetched (or restored from the disk) for a new timeline, other
+	 * timelines are refreshed unless it happened recently. A query failed
+	 * recently is not repeated unless forced, the error is shown again.
+	 *
+	 * The other listeners are notified of the changes, the given one is expected
+	 * to show the timeline from scratch.
+	 */
+	public void open(boolean force, TimelineModelListener opener) {
+		boolean failedRecently = failureTime != 0 && !force && isRecent(failureTime);
+		if (!failedRecently) {
+			failureTime = 0;
+			if (tailMessage != null) {
+				// fetching of older statuses is tried again
+				tailMessage = null;
+				fireRowsChanged(timeline.getIds(), opener);
+			}
+		}
+
+		if (!opened) {
+			opened = true;
+			// the first page is restored from the disk or fetched
+			appendScheduled = true;
+			schedule(new RestoreJob());
+		} else if (!failedRecently && (force || !isRecent(timeline.getRefreshTime()))) {
+			scheduleRefresh(true);
+		}
+	}
+
+	/**
+	 * Fetches the newer statuses, unless the timeline was refreshed recently and
+	 * the refresh is not forced.
+	 */
+	public void refresh(boolean force) {
+		if (force || !isRecent(timeline.getRefreshTime())) {
+			scheduleRefresh(false);
+		}
+	}
+
+	/**
+	 * Fetches the next page of older statuses, if there may be any.
+	 */
+	public void requestAppend() {
+		if (appendScheduled || timeline.isComplete() || tailMessage != null) return;
+
+		appendScheduled = true;
+		schedule(new PageJob(PageJob.APPEND, timeline.getNextPage(), false, null));
+	}
+
+	/**
+	 * Fetches again the evicted status at the given row, together with a page
+	 * of the evicted rows around it.
+	 */
+	public void requestReload(int index) {
+		long id = timeline.getId(index);
+		if (isScheduled(reloadsScheduled, id) || isScheduled(readsScheduled, id)) return;
+
+		// fetch a whole page of evicted rows, preferably the ones above when scrolling up
+		int start = index;
+		while (start > 0 && index - start < UserTimeline.PAGE_SIZE - 1 && timeline.isEvicted(start - 1)) {
+			start--;
+		}
+		int end = timeline.getReloadEnd(start);
+
+		long[] range = new long[] { timeline.getId(start), timeline.getId(end - 1) };
+		reloadsScheduled.add(range);
+		schedule(new PageJob(PageJob.RELOAD, timeline.getReloadPage(start, end), false, range));
+	}
+
+	/**
+	 * Fetches statuses missing in the given gap row.
+	 */
+	public void expandGap(TimelineGap gap) {
+		int index = timeline.indexOf(gap);
+		if (gap.isLoading() || index < 0) return;
+
+		gap.setLoading(true);
+		fireRowsUpdated(index, index + 1, null);
+		schedule(new PageJob(PageJob.GAP, timeline.getGapPage(gap), false, gap));
+	}
+
+	/**
+	 * Puts the evicted status at the given row back if it is still in the shared
+	 * cache, the other listeners are notified. Otherwise the evicted rows from
+	 * the given one on are read from the disk in the background, all listeners
+	 * are notified then and the rows not found there are fetched again.
+	 *
+	 * @return true if the status has been restored right away
+	 */
+	public boolean restore(int index, TimelineModelListener requester) {
+		long id = timeline.getId(index);
+		Status cached = TwitterClient.getCachedStatus(id);
+		if (cached != null) {
+			timeline.restore(index, cached);
+			fireRowsUpdated(index, index + 1, requester);
+			return true;
+		}
+		if (isScheduled(reloadsScheduled, id) || isScheduled(readsScheduled, id)) return false;
+
+		long[] ids = new long[timeline.getReloadEnd(index) - index];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = timeline.getId(index + i);
+		}
+		long[] range = new long[] { ids[0], ids[ids.length - 1] };
+		readsScheduled.add(range);
+		schedule(new ReadJob(range, ids));
+		return false;
+	}
+
+	/**
+	 * Remembers the row the listener requested last, the rows around it are kept materialized.
+	 */
+	public void setLastIndex(TimelineModelListener listener, int index) {
+		if (listeners.containsKey(listener)) {
+			listeners.put(listener, index);
+		}
+	}
+
+	/**
+	 * Switches streaming on or off for the listener, the timeline is streamed
+	 * while at least one listener wants it.
+	 */
+	public void setStreaming(TimelineModelListener listener, boolean streaming) {
+		if (streaming && listeners.containsKey(listener)) {
+			streamingListeners.add(listener);
+		} else {
+			streamingListeners.remove(listener);
+		}
+		updateStream();
+	}
+
+	/**
+	 * Cancels the requests in progress if the listener is the only one, it no longer needs them.
+	 */
+	public void cancelRequests(TimelineModelListener listener) {
+		if (listeners.size() == 1 && listeners.containsKey(listener)) {
+			cancelJobs();
+		}
+	}
+
+	void addListener(TimelineModelListener listener) {
+		if (!listeners.containsKey(listener)) {
+			listeners.put(listener, 0);
+		}
+	}
+
+	void removeListener(TimelineModelListener listener) {
+		listeners.remove(listener);
+		streamingListeners.remove(listener);
+		updateStream();
+	}
+
+	boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	// nobody shows the timeline, only the ids of its rows are kept
+	void suspend() {
+		cancelJobs();
+		stopStream();
+		for (int i = 0; i < timeline.getSize(); i++) {
+			timeline.evict(i);
+		}
+	}
+
+	void dispose() {
+		disposed = true;
+		cancelJobs();
+		stopStream();
+	}
+
+	private boolean isRecent(long time) {
+		return System.currentTimeMillis() - time < RECENT_QUERY_AGE;
+	}
+
+	// whether the id is in one of the ranges (ids of their first and last rows)
+	private static boolean isScheduled(List<long[]> ranges, long id) {
+		for (long[] range : ranges) {
+			if (range[0] >= id && id >= range[1]) return true;
+		}
+		return false;
+	}
+
+	// the top of the timeline (up to the first gap) can be shown from the disk next time
+	private void saveCheckpoint() {
+		int end = timeline.getContiguousEnd();
+		if (end == 0 || timeline.getUserId() == 0) return;
+
+		checkpointJob.save(timeline.getUserId(), timeline.getIds(), end);
+	}
+
+	// the stream is started as soon as the id of the user is known
+	private void updateStream() {
+		long userId = !streamingListeners.isEmpty() ? timeline.getUserId() : 0;
+		if (stream != null && stream.getUserId() == userId) return;
+
+		stopStream();
+		if (userId != 0) {
+			stream = new StatusStream(userId, display, streamListener);
+			stream.start();
+		}
+	}
+
+	private void stopStream() {
+		if (stream != null) {
+			stream.stop();
+			stream = null;
+		}
+		streamed.clear();
+		catchingUp = false;
+	}
+
+	// called in the UI thread when the timeline is up to date with the stream
+	private void insertStreamed() {
+		if (streamed.isEmpty()) return;
+
+		// a batch may come from more connections, the timeline wants the newest first
+		Collections.sort(streamed, new Comparator<Status>() {
+			@Override
+			public int compare(Status s1, Status s2) {
+				return s1.getId() < s2.getId() ? 1 : (s1.getId() > s2.getId() ? -1 : 0);
+			}
+		});
+		long[] oldIds = timeline.getIds();
+		int count = timeline.prependStreamed(streamed);
+		streamed.clear();
+
+		saveCheckpoint();
+		if (count > 0) {
+			fireRowsChanged(oldIds, null);
+			trimWindow();
+		}
+	}
+
+	private void scheduleRefresh(boolean fetchUser) {
+		// the first page is on its way already
+		if (refreshScheduled || (appendScheduled && timeline.getSize() == 0)) return;
+
+		refreshScheduled = true;
+		schedule(new PageJob(PageJob.REFRESH, timeline.getNewerPage(), fetchUser, null));
+	}
+
+	private void schedule(ModelJob job) {
+		if (disposed) return;
+
+		job.schedule();
+	}
+
+	private void cancelJobs() {
+		generation++;
+		appendScheduled = false;
+		refreshScheduled = false;
+		reloadsScheduled.clear();
+		readsScheduled.clear();
+		Job.getJobManager().cancel(this);
+	}
+
+	// called in the UI thread when the ids stored at the last checkpoint have been read, null if there are none
+	private void timelineRestored(User user, long[] ids) {
+		if (ids == null || ids.length == 0) {
+			schedule(new PageJob(PageJob.APPEND, timeline.getNextPage(), true, null));
+			return;
+		}
+
+		appendScheduled = false;
+		if (user != null) {
+			totalCount = Math.min(user.getStatusesCount(), TIMELINE_LIMIT);
+		}
+		long[] oldIds = timeline.getIds();
+		// the rows are read when shown
+		timeline.appendStored(user != null ? user.getId() : 0, ids);
+		fireRowsChanged(oldIds, null);
+
+		// only the newer statuses are missing
+		scheduleRefresh(true);
+	}
+
+	// called in the UI thread when evicted statuses have been read from the disk
+	private void statusesRead(long[] range, List<Status> statuses) {
+		readsScheduled.remove(range);
+
+		int start = timeline.indexOf(range[0]);
+		int end = timeline.indexOf(range[1]) + 1;
+		if (start < 0 || end <= start) return;
+
+		for (Status status : statuses) {
+			int index = timeline.indexOf(status.getId());
+			if (index >= 0 && timeline.isEvicted(index)) {
+				timeline.restore(index, status);
+			}
+		}
+		// the statuses which are not on the disk any more are fetched again
+		for (int i = start; i < end; i++) {
+			if (timeline.isEvicted(i)) {
+				requestReload(i);
+			}
+		}
+		fireRowsUpdated(start, end, null);
+	}
+
+	// called in the UI thread when a page of older statuses has been fetched
+	private void pageAppended(User user, List<Status> page) {
+		appendScheduled = false;
+
+		long[] oldIds = timeline.getIds();
+		if (oldIds.length == 0) {
+			// the first page holds the newest statuses
+			timeline.setRefreshTime(System.currentTimeMillis());
+		}
+		if (user != null) {
+			totalCount = Math.min(user.getStatusesCount(), TIMELINE_LIMIT);
+		}
+		timeline.append(page);
+		saveCheckpoint();
+
+		fireRowsChanged(oldIds, null);
+		trimWindow();
+		updateStream();
+	}
+
+	// called in the UI thread when a page of newer statuses has been fetched
+	private void pageRefreshed(User user, List<Status> page) {
+		refreshScheduled = false;
+		timeline.setRefreshTime(System.currentTimeMillis());
+
+		if (user != null) {
+			totalCount = Math.min(user.getStatusesCount(), TIMELINE_LIMIT);
+		}
+		long[] oldIds = timeline.getIds();
+		timeline.prepend(page);
+		saveCheckpoint();
+		fireRowsChanged(oldIds, null);
+		trimWindow();
+
+		// statuses streamed meanwhile can be inserted above the fetched ones
+		catchingUp = false;
+		insertStreamed();
+		updateStream();
+	}
+
+	// called in the UI thread when evicted statuses have been fetched again
+	private void pageReloaded(long[] range, List<Status> page) {
+		reloadsScheduled.remove(range);
+
+		int start = timeline.indexOf(range[0]);
+		int end = timeline.indexOf(range[1]) + 1;
+		if (start < 0 || end <= start) return;
+
+		timeline.fill(start, end, page);
+		fireRowsUpdated(start, end, null);
+		trimWindow();
+	}
+
+	// called in the UI thread when statuses missing in a gap have been fetched
+	private void gapFilled(TimelineGap gap, List<Status> page) {
+		gap.setLoading(false);
+
+		int index = timeline.indexOf(gap);
+		if (index < 0) return;
+
+		long[] oldIds = timeline.getIds();
+		timeline.fillGap(gap, page);
+		fireRowsChanged(oldIds, null);
+		// the first fetched status may have the id of the gap row, then the row is not replaced
+		fireRowsUpdated(index, index + 1, null);
+		saveCheckpoint();
+		trimWindow();
+	}
+
+	private void pageFailed(PageJob job, String error) {
+		if (job.kind == PageJob.APPEND) {
+			appendScheduled = false;
+			tailMessage = error;
+			if (timeline.getSize() == 0) {
+				// showing the user again does not repeat the request for a while
+				failureTime = System.currentTimeMillis();
+			}
+			fireRowsChanged(timeline.getIds(), null);
+		} else if (job.kind == PageJob.REFRESH) {
+			// newer statuses are fetched again with the next refresh
+			refreshScheduled = false;
+		} else if (job.kind == PageJob.RELOAD) {
+			// rows of the range stay pending, another attempt is made when they are shown again
+			reloadsScheduled.remove(job.target);
+		} else {
+			// the gap can be expanded again
+			TimelineGap gap = (TimelineGap) job.target;
+			gap.setLoading(false);
+			int index = timeline.indexOf(gap);
+			if (index >= 0) {
+				fireRowsUpdated(index, index + 1, null);
+			}
+		}
+	}
+
+	/*
+	 * Tells the listeners how the rows changed, the ids of the rows before the
+	 * change are given. The last requested rows move with the rows.
+	 */
+	private void fireRowsChanged(long[] oldIds, TimelineModelListener except) {
+		RowDelta delta = RowDelta.compute(oldIds, timeline.getIds());
+		for (Map.Entry<TimelineModelListener, Integer> entry : listeners.entrySet()) {
+			int last = delta.getNewPosition(entry.getValue());
+			if (last >= 0) {
+				entry.setValue(last);
+			}
+		}
+
+		// a listener may detach itself meanwhile
+		for (TimelineModelListener listener : new ArrayList<TimelineModelListener>(listeners.keySet())) {
+			if (listener != except) {
+				listener.rowsChanged(delta);
+			}
+		}
+	}
+
+	private void fireRowsUpdated(int start, int end, TimelineModelListener except) {
+		for (TimelineModelListener listener : new ArrayList<TimelineModelListener>(listeners.keySet())) {
+			if (listener != except) {
+				listener.rowsUpdated(start, end);
+			}
+		}
+	}
+
+	// drop statuses too far from the last requested rows, the listeners will ask for them again
+	private void trimWindow() {
+		int start = -1;
+		for (int i = 0; i <= timeline.getSize(); i++) {
+			boolean evict = i < timeline.getSize() && timeline.isMaterialized(i) && !isInWindow(i);
+			if (evict) {
+				timeline.evict(i);
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				fireRowsUpdated(start, i, null);
+				start = -1;
+			}
+		}
+	}
+
+	private boolean isInWindow(int index) {
+		int windowSize = WINDOW_PAGES * UserTimeline.PAGE_SIZE;
+		for (int last : listeners.values()) {
+			if (index >= last - windowSize && index < last + windowSize) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Job of the model, its results are ignored when the jobs are cancelled.
+	 */
+	private abstract class ModelJob extends Job {
+
+		private int jobGeneration = generation;
+
+		public ModelJob(String name) {
+			super(name);
+		}
+
+		@Override
+		public boolean belongsTo(Object family) {
+			return family == TimelineModel.this;
+		}
+
+		// execute in the UI thread, but only if the job has not been cancelled meanwhile
+		protected void asyncExecIfCurrent(final Runnable runnable) {
+			if (display.isDisposed()) return;
+
+			display.asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					if (jobGeneration == generation && !disposed) {
+						runnable.run();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads the ids stored at the last checkpoint of the timeline outside the UI thread.
+	 */
+	private class RestoreJob extends ModelJob {
+
+		public RestoreJob() {
+			super("Restoring timeline of @" + screenName + "...");
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			LocalStore store = TwitterViewPlugin.getDefault().getLocalStore();
+			final long[] ids = store.getTimelineIds(screenName);
+			final User user = ids != null ? store.getUser(screenName) : null;
+
+			asyncExecIfCurrent(new Runnable() {
+				@Override
+				public void run() {
+					timelineRestored(user, ids);
+				}
+			});
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Reads evicted statuses from the disk outside the UI thread.
+	 */
+	private class ReadJob extends ModelJob {
+
+		// ids of the first and the last row
+		private long[] range;
+		private long[] ids;
+
+		public ReadJob(long[] range, long[] ids) {
+			super("Reading timeline of @" + screenName + "...");
+			this.range = range;
+			this.ids = ids;
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			LocalStore store = TwitterViewPlugin.getDefault().getLocalStore();
+			final List<Status> statuses = new ArrayList<Status>();
+			for (long id : ids) {
+				if (monitor.isCanceled()) return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+
+				Status status = store.getStatus(id);
+				if (status != null) {
+					statuses.add(status);
+				}
+			}
+			TwitterClient.cacheStatuses(statuses);
+
+			asyncExecIfCurrent(new Runnable() {
+				@Override
+				public void run() {
+					statusesRead(range, statuses);
+				}
+			});
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Writes the last checkpoint of the timeline outside the UI thread, only
+	 * the newest one is written when more of them are saved meanwhile.
+	 */
+	private class CheckpointJob extends Job {
+
+		// null when there is nothing to write
+		private long[] ids;
+		private long userId;
+		private int end;
+
+		public CheckpointJob() {
+			super("Saving timeline of @" + screenName + "...");
+			setSystem(true);
+		}
+
+		public synchronized void save(long userId, long[] ids, int end) {
+			this.userId = userId;
+			this.ids = ids;
+			this.end = end;
+			schedule();
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			long userId;
+			long[] ids;
+			int end;
+			synchronized (this) {
+				if (this.ids == null) return org.eclipse.core.runtime.Status.OK_STATUS;
+
+				userId = this.userId;
+				ids = this.ids;
+				end = this.end;
+				this.ids = null;
+			}
+
+			TwitterViewPlugin.getDefault().getLocalStore().setCheckpoint(screenName, userId, ids, end);
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Fetches one page of the timeline outside the UI thread.
+	 */
+	private class PageJob extends ModelJob {
+
+		// older statuses to append
+		static final int APPEND = 0;
+		// newer statuses to prepend
+		static final int REFRESH = 1;
+		// evicted statuses, the target is the range of their ids
+		static final int RELOAD = 2;
+		// statuses missing in a gap, the target is the gap
+		static final int GAP = 3;
+
+		private int kind;
+		private Paging paging;
+		private boolean fetchUser;
+		private Object target;
+
+		public PageJob(int kind, Paging paging, boolean fetchUser, Object target) {
+			super("Getting timeline of @" + screenName + "...");
+
+			this.kind = kind;
+			this.paging = paging;
+			this.fetchUser = fetchUser;
+			this.target = target;
+		}
+
+		// rows the user is waiting for go before prefetching
+		private int getPriority() {
+			if (fetchUser || kind == RELOAD || kind == GAP) {
+				return TwitterRequest.PRIORITY_INTERACTIVE;
+			}
+			return TwitterRequest.PRIORITY_NORMAL;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+
+			try {
+				RequestGroup group = new RequestGroup();
+				Future<List<Status>> pageFuture = group.submit(new TwitterRequest<List<Status>>(TwitterRequest.USER_TIMELINE, getPriority()) {
+					@Override
+					public List<Status> execute(Twitter twitter) throws TwitterException {
+						return twitter.getUserTimeline(screenName, paging);
+					}
+				});
+
+				// statuses carry their author, so the profile is requested only if the page
+				// may well be empty (newer statuses) and the user is not known at all
+				User knownUser = fetchUser ? TwitterClient.getKnownUser(screenName) : null;
+				Future<User> userFuture = null;
+				if (fetchUser && knownUser == null && kind != APPEND) {
+					userFuture = group.resolveUser(screenName, getPriority());
+				}
+
+				group.join(monitor);
+
+				final List<Status> page = group.get(pageFuture);
+				final User user = fetchUser ? getAuthor(page, userFuture != null ? group.get(userFuture) : knownUser) : null;
+				TwitterClient.cacheStatuses(page);
+				TwitterViewPlugin.getDefault().getLocalStore().putStatuses(page);
+				TwitterClient.archiveStatuses(page);
+				if (user != null && user != knownUser) {
+					TwitterViewPlugin.getDefault().getLocalStore().putUser(user);
+				}
+
+				asyncExecIfCurrent(new Runnable() {
+					@Override
+					public void run() {
+						if (kind == APPEND) {
+							pageAppended(user, page);
+						} else if (kind == REFRESH) {
+							pageRefreshed(user, page);
+						} else if (kind == RELOAD) {
+							pageReloaded((long[]) target, page);
+						} else {
+							gapFilled((TimelineGap) target, page);
+						}
+					}
+				});
+			}
+			catch (OperationCanceledException e) {
+				return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+			}
+			catch (final TwitterException e) {
+				asyncExecIfCurrent(new Runnable() {
+					@Override
+					public void run() {
+						pageFailed(PageJob.this, e.getMessage());
+					}
+				});
+			}
+			finally {
+				monitor.done();
+			}
+
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+
+		// the newest state of the user is in the newest status
+		private User getAuthor(List<Status> page, User user) {
+			if (!page.isEmpty() && page.get(0).getUser() != null) {
+				return page.get(0).getUser();
+			}
+			return user;
+		}
+	}
+}
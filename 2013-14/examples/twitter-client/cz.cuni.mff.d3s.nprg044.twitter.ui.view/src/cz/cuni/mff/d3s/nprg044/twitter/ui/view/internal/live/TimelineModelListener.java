@@ -0,0 +1,22 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live;
+
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowDelta;
+
+/**
+ * Receives changes of a {@link TimelineModel}, all methods are called in the UI thread.
+ */
+public interface TimelineModelListener {
+
+	/**
+	 * Rows have been inserted or removed, or the end of the timeline has changed
+	 * (it is complete or fetching of older statuses failed). The delta may be
+	 * empty then.
+	 */
+	void rowsChanged(RowDelta delta);
+
+	/**
+	 * Rows in the given range show something else now (the statuses have been
+	 * fetched again or evicted, a gap is being filled).
+	 */
+	void rowsUpdated(int start, int end);
+}
@@ -0,0 +1,91 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Live timeline models shared by all views, keyed by lower-case screen names.
+ *
+ * A model is counted by its listeners (views showing the timeline). When the
+ * last one detaches, the model stops fetching and drops its statuses, but it
+ * is kept for {@link #GRACE_PERIOD} with the ids of its rows, so a view showing
+ * the same user again soon (another user was typed by mistake, a view was
+ * closed and opened) only fetches the newer statuses. Then it is released.
+ *
+ * The registry must be accessed from the UI thread only.
+ */
+public class TimelineModelRegistry {
+
+	// milliseconds an unused model is kept
+	private static final int GRACE_PERIOD = 2 * 60 * 1000;
+
+	private Display display;
+
+	private Map<String, TimelineModel> models = new HashMap<String, TimelineModel>();
+	// pending releases of the unused models
+	private Map<TimelineModel, Runnable> releases = new HashMap<TimelineModel, Runnable>();
+
+	public TimelineModelRegistry(Display display) {
+		this.display = display;
+	}
+
+	/**
+	 * Returns the model of the timeline of the user and attaches the listener
+	 * to it. Attaching the same listener again has no effect.
+	 */
+	public TimelineModel acquire(String screenName, TimelineModelListener listener) {
+		String key = screenName.toLowerCase();
+		TimelineModel model = models.get(key);
+		if (model == null) {
+			model = new TimelineModel(screenName, display);
+			models.put(key, model);
+		}
+
+		Runnable release = releases.remove(model);
+		if (release != null) {
+			display.timerExec(-1, release);
+		}
+		model.addListener(listener);
+		return model;
+	}
+
+	/**
+	 * Detaches the listener from the model, the model is released after the
+	 * grace period unless it is acquired again.
+	 */
+	public void release(final TimelineModel model, TimelineModelListener listener) {
+		model.removeListener(listener);
+		if (model.hasListeners() || releases.containsKey(model)) return;
+
+		model.suspend();
+		Runnable release = new Runnable() {
+			@Override
+			public void run() {
+				releases.remove(model);
+				models.remove(model.getScreenName().toLowerCase());
+				model.dispose();
+			}
+		};
+		releases.put(model, release);
+		display.timerExec(GRACE_PERIOD, release);
+	}
+
+	/**
+	 * Releases all models.
+	 */
+	public void dispose() {
+		if (!display.isDisposed()) {
+			for (Runnable release : releases.values()) {
+				display.timerExec(-1, release);
+			}
+		}
+		releases.clear();
+
+		for (TimelineModel model : models.values()) {
+			model.dispose();
+		}
+		models.clear();
+	}
+}
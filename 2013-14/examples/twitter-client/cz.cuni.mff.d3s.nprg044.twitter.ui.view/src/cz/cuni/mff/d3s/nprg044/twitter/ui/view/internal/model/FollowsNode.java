@@ -1,11 +1,17 @@
 package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.viewers.TreeViewer;
 
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+
 import twitter4j.Twitter;
+import twitter4j.TwitterException;
 import twitter4j.User;
 
 public class FollowsNode extends LazyNode {
@@ -31,6 +37,13 @@ public class FollowsNode extends LazyNode {
 		return "Follows";
 	}	
 	
+	/**
+	 * Returns screen names of the followed users, the users themselves may not have been queried yet.
+	 */
+	public String[] getScreenNames() {
+		return TEST_FOLLOWS.clone();
+	}
+
 	@Override
 	protected AbstractUserInfoViewNode[] doQueryChildren(IProgressMonitor monitor) {
 		int numberOfFollows = TEST_FOLLOWS.length;
@@ -38,17 +51,37 @@ public class FollowsNode extends LazyNode {
 			
 		monitor.beginTask("Getting follows", numberOfFollows);
 		
-		for (String s : TEST_FOLLOWS) {
-			User user;
+		// ask for all missing users at once, so that they are looked up together
+		User[] cached = new User[numberOfFollows];
+		List<Future<User>> users = new ArrayList<Future<User>>(numberOfFollows);
+		for (int i = 0; i < numberOfFollows; i++) {
+			cached[i] = TwitterClient.getCachedUser(TEST_FOLLOWS[i]);
 			try {
-				UserNode userNode = new UserNode(s, this, getTwitter(), getTreeViewer());
-				follows.add(userNode);
-				monitor.worked(1);
+				users.add(cached[i] == null ? TwitterClient.resolveUser(TEST_FOLLOWS[i], TwitterRequest.PRIORITY_INTERACTIVE) : null);
 			}
-			catch (Exception e) {
+			catch (TwitterException e) {
+				users.add(null);
 			}
 		}
 		
+		for (int i = 0; i < numberOfFollows; i++) {
+			User user = cached[i];
+			try {
+				if (users.get(i) != null) {
+					user = TwitterClient.get(users.get(i), monitor);
+					TwitterClient.cacheUser(user);
+				}
+			}
+			catch (TwitterException e) {
+				// show at least the name
+			}
+			
+			UserNode userNode = user != null ? new UserNode(user, this, getTwitter(), getTreeViewer())
+					: new UserNode(TEST_FOLLOWS[i], this, getTwitter(), getTreeViewer());
+			follows.add(userNode);
+			monitor.worked(1);
+		}
+		
 		return follows.toArray(new AbstractUserInfoViewNode[follows.size()]);
 	}
 
@@ -0,0 +1,66 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.refresh;
+
+/**
+ * Snapshot of the schedule of a {@link RefreshTask}.
+ */
+public final class RefreshSchedule {
+
+	private String name;
+	private boolean visible;
+	private long interval;
+	private int emptyRefreshes;
+	private boolean budgetLimited;
+	private long lastRefreshTime;
+	private long nextRefreshTime;
+
+	public RefreshSchedule(String name, boolean visible, long interval, int emptyRefreshes, boolean budgetLimited,
+			long lastRefreshTime, long nextRefreshTime) {
+		this.name = name;
+		this.visible = visible;
+		this.interval = interval;
+		this.emptyRefreshes = emptyRefreshes;
+		this.budgetLimited = budgetLimited;
+		this.lastRefreshTime = lastRefreshTime;
+		this.nextRefreshTime = nextRefreshTime;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	// milliseconds between the refreshes
+	public long getInterval() {
+		return interval;
+	}
+
+	// refreshes in a row which brought nothing new
+	public int getEmptyRefreshes() {
+		return emptyRefreshes;
+	}
+
+	// the interval has been stretched to save the rate limit
+	public boolean isBudgetLimited() {
+		return budgetLimited;
+	}
+
+	// times in milliseconds (System.currentTimeMillis())
+	public long getLastRefreshTime() {
+		return lastRefreshTime;
+	}
+
+	public long getNextRefreshTime() {
+		return nextRefreshTime;
+	}
+
+	@Override
+	public String toString() {
+		long delay = Math.max(nextRefreshTime - System.currentTimeMillis(), 0);
+		return name + ": " + (visible ? "visible" : "hidden") + ", every " + interval / 1000 + " s"
+				+ (budgetLimited ? " (low budget)" : "") + ", " + emptyRefreshes + " empty refreshes, next in "
+				+ delay / 1000 + " s";
+	}
+}
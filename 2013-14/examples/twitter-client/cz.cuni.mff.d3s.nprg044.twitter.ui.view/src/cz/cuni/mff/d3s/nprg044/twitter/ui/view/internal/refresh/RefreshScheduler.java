@@ -0,0 +1,142 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.refresh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.widgets.Display;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.RateLimitBudget;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+
+/**
+ * Refreshes the content of the views periodically, so it stays fresh without
+ * the user asking for it.
+ *
+ * The interval of a task depends on:
+ * <ul>
+ * <li>the visibility of its part, hidden parts are refreshed rarely,</li>
+ * <li>the results of its last refreshes, the interval doubles with every
+ * refresh which brought nothing new (up to a limit) and it is reset by the
+ * first one which did,</li>
+ * <li>the rate limit budget of its endpoint family. When it runs low, the
+ * refreshes are spread over the rest of the rate limit window so that they
+ * use only a part of the remaining requests, the rest is left for the user.</li>
+ * </ul>
+ *
+ * The intervals are computed again after every refresh, so a task adapts to the
+ * budget as it changes. The current schedule can be read by {@link #getSchedule()}.
+ *
+ * The scheduler must be used from the UI thread only.
+ */
+public class RefreshScheduler {
+
+	// milliseconds between refreshes of visible and hidden parts
+	private static final long VISIBLE_INTERVAL = 60 * 1000L;
+	private static final long HIDDEN_INTERVAL = 10 * 60 * 1000L;
+
+	// the interval is doubled at most this number of times
+	private static final int MAX_BACKOFF_STEPS = 4;
+	private static final long MAX_INTERVAL = 30 * 60 * 1000L;
+
+	// the refreshes are spread when less than this part of the rate limit is left
+	private static final double LOW_BUDGET = 0.2;
+	// part of the remaining requests the refreshes may use then
+	private static final double REFRESH_SHARE = 0.5;
+
+	private Display display;
+
+	private List<RefreshTask> tasks = new ArrayList<RefreshTask>();
+
+	public RefreshScheduler(Display display) {
+		this.display = display;
+	}
+
+	/**
+	 * Returns the schedules of all tasks.
+	 */
+	public List<RefreshSchedule> getSchedule() {
+		List<RefreshSchedule> result = new ArrayList<RefreshSchedule>();
+		for (RefreshTask task : tasks) {
+			result.add(new RefreshSchedule(task.getName(), task.isVisible(), getInterval(task), task.getEmptyRefreshes(),
+					getBudgetInterval(task.getEndpoint()) > getBaseInterval(task), task.getLastRefreshTime(),
+					task.getNextRefreshTime()));
+		}
+		return result;
+	}
+
+	/**
+	 * Stops all tasks.
+	 */
+	public void dispose() {
+		for (RefreshTask task : new ArrayList<RefreshTask>(tasks)) {
+			remove(task);
+		}
+	}
+
+	void add(RefreshTask task) {
+		if (tasks.contains(task)) return;
+
+		tasks.add(task);
+		task.scheduler = this;
+		reschedule(task);
+	}
+
+	void remove(RefreshTask task) {
+		if (!tasks.remove(task)) return;
+
+		if (!display.isDisposed()) {
+			display.timerExec(-1, task.timer);
+		}
+		task.scheduler = null;
+		task.setNextRefreshTime(0);
+	}
+
+	// schedules the next refresh of the task after its last one
+	void reschedule(RefreshTask task) {
+		if (display.isDisposed()) return;
+
+		long now = System.currentTimeMillis();
+		long time = Math.max(task.getLastRefreshTime() + getInterval(task), now);
+		task.setNextRefreshTime(time);
+		display.timerExec((int) (time - now), task.timer);
+	}
+
+	void run(RefreshTask task) {
+		boolean changed = task.refresh();
+		task.refreshed(changed, System.currentTimeMillis());
+		reschedule(task);
+	}
+
+	private long getInterval(RefreshTask task) {
+		return Math.max(getBaseInterval(task), getBudgetInterval(task.getEndpoint()));
+	}
+
+	// the interval given by the visibility and the results of the last refreshes
+	private long getBaseInterval(RefreshTask task) {
+		long interval = task.isVisible() ? VISIBLE_INTERVAL : HIDDEN_INTERVAL;
+		interval <<= Math.min(task.getEmptyRefreshes(), MAX_BACKOFF_STEPS);
+		return Math.min(interval, MAX_INTERVAL);
+	}
+
+	// the shortest interval the budget allows, 0 if the budget is not low
+	private long getBudgetInterval(String endpoint) {
+		RateLimitBudget budget = TwitterClient.getBudget(endpoint);
+		if (budget == null || !budget.isLow(LOW_BUDGET)) return 0;
+
+		long window = Math.max(budget.getResetTime() - System.currentTimeMillis(), 0);
+		double available = (budget.getRemaining() - budget.getQueued()) * REFRESH_SHARE;
+		if (available < 1) {
+			// nothing is left for the refreshes until the window ends
+			return window;
+		}
+
+		// the tasks using the endpoint share the requests
+		int count = 0;
+		for (RefreshTask task : tasks) {
+			if (endpoint.equals(task.getEndpoint())) {
+				count++;
+			}
+		}
+		return (long) (window * count / available);
+	}
+}
@@ -0,0 +1,165 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.refresh;
+
+import org.eclipse.ui.IPartListener2;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.IWorkbenchPartReference;
+
+/**
+ * Periodic refresh of the content of a view, run by the {@link RefreshScheduler}.
+ *
+ * The task follows the visibility of its part: a visible part is refreshed
+ * often, a hidden one (behind another view, minimized) rarely. The scheduler
+ * spaces out the refreshes of a task whose last refreshes brought nothing new.
+ *
+ * Tasks are used in the UI thread only.
+ */
+public abstract class RefreshTask {
+
+	private String name;
+	private String endpoint;
+
+	private IWorkbenchPart part;
+	private boolean visible;
+
+	// refreshes in a row which brought nothing new
+	private int emptyRefreshes;
+	private long lastRefreshTime;
+	// 0 while the task is not scheduled
+	private long nextRefreshTime;
+
+	RefreshScheduler scheduler;
+
+	Runnable timer = new Runnable() {
+		@Override
+		public void run() {
+			if (scheduler != null) {
+				scheduler.run(RefreshTask.this);
+			}
+		}
+	};
+
+	private IPartListener2 partListener = new IPartListener2() {
+		@Override
+		public void partVisible(IWorkbenchPartReference partRef) {
+			if (partRef.getPart(false) == part) {
+				setVisible(true);
+			}
+		}
+
+		@Override
+		public void partHidden(IWorkbenchPartReference partRef) {
+			if (partRef.getPart(false) == part) {
+				setVisible(false);
+			}
+		}
+
+		@Override
+		public void partActivated(IWorkbenchPartReference partRef) {
+		}
+
+		@Override
+		public void partBroughtToTop(IWorkbenchPartReference partRef) {
+		}
+
+		@Override
+		public void partClosed(IWorkbenchPartReference partRef) {
+		}
+
+		@Override
+		public void partDeactivated(IWorkbenchPartReference partRef) {
+		}
+
+		@Override
+		public void partOpened(IWorkbenchPartReference partRef) {
+		}
+
+		@Override
+		public void partInputChanged(IWorkbenchPartReference partRef) {
+		}
+	};
+
+	/**
+	 * Creates a task refreshing the content of the part, its requests belong to
+	 * the endpoint family (see the constants of {@link cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest}).
+	 */
+	public RefreshTask(String name, String endpoint, IWorkbenchPart part) {
+		this.name = name;
+		this.endpoint = endpoint;
+		this.part = part;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public int getEmptyRefreshes() {
+		return emptyRefreshes;
+	}
+
+	public long getLastRefreshTime() {
+		return lastRefreshTime;
+	}
+
+	public long getNextRefreshTime() {
+		return nextRefreshTime;
+	}
+
+	/**
+	 * Starts refreshing the content while the part is open, the content is
+	 * considered fresh now.
+	 */
+	public void start(RefreshScheduler scheduler) {
+		IWorkbenchPage page = part.getSite().getPage();
+		page.addPartListener(partListener);
+		visible = page.isPartVisible(part);
+		lastRefreshTime = System.currentTimeMillis();
+		scheduler.add(this);
+	}
+
+	/**
+	 * Stops refreshing, the part is being disposed.
+	 */
+	public void stop() {
+		part.getSite().getPage().removePartListener(partListener);
+		if (scheduler != null) {
+			scheduler.remove(this);
+		}
+	}
+
+	/**
+	 * Starts a refresh of the content, the results may arrive later.
+	 *
+	 * @return true if new content has been shown since the previous call
+	 *         (the previous refresh or anything else brought it)
+	 */
+	protected abstract boolean refresh();
+
+	// called by the scheduler after a refresh
+	void refreshed(boolean changed, long time) {
+		emptyRefreshes = changed ? 0 : emptyRefreshes + 1;
+		lastRefreshTime = time;
+	}
+
+	void setNextRefreshTime(long time) {
+		nextRefreshTime = time;
+	}
+
+	private void setVisible(boolean visible) {
+		if (this.visible == visible) return;
+
+		this.visible = visible;
+		if (scheduler != null) {
+			// a part shown again is refreshed right away if it has been hidden long enough
+			scheduler.reschedule(this);
+		}
+	}
+}
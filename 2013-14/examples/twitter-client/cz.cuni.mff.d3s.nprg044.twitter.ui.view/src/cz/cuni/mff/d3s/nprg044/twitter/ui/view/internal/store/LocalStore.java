@@ -0,0 +1,604 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import twitter4j.Status;
+import twitter4j.User;
+
+/**
+ * Statuses, users and timeline checkpoints kept on the local disk between sessions.
+ *
+ * Entities are serialized into append-only segment files. A new segment is
+ * started when the current one is full and the oldest segments are deleted when
+ * there are too many of them. The segments are scanned when the store is opened,
+ * which builds an index of record positions without deserializing anything, and
+ * records are read only when they are needed. Full segments do not change, they
+ * are read through memory-mapped buffers, the segment being written is read
+ * through its channel (it would have to be mapped again after every append).
+ *
+ * A checkpoint remembers the newest and the oldest id of the contiguous part of
+ * a timeline at its top, so the timeline can be shown again before anything is
+ * fetched. When a dropped segment held a status of the part, the checkpoint is
+ * cut above it (or forgotten), so the part stays contiguous.
+ *
+ * Methods may be called from any thread.
+ */
+public class LocalStore {
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String CHECKPOINTS_FILE = "checkpoints";
+
+	private static final byte STATUS = 1;
+	private static final byte USER = 2;
+
+	// a new segment is started when the current one is bigger than this
+	private static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_SEGMENTS = 16;
+
+	// a stored user is written again when it is older than this
+	private static final long USER_REWRITE_INTERVAL = 60 * 60 * 1000L;
+
+	/**
+	 * The top of a timeline stored on the disk.
+	 */
+	public static class Checkpoint {
+		private long userId;
+		private long newestId;
+		private long oldestId;
+
+		Checkpoint(long userId, long newestId, long oldestId) {
+			this.userId = userId;
+			this.newestId = newestId;
+			this.oldestId = oldestId;
+		}
+
+		public long getUserId() {
+			return userId;
+		}
+
+		public long getNewestId() {
+			return newestId;
+		}
+
+		public long getOldestId() {
+			return oldestId;
+		}
+	}
+
+	private static class Segment {
+		int number;
+		File file;
+		RandomAccessFile raf;
+		FileChannel channel;
+		long length;
+		// covers the file up to the length at the time it was mapped
+		MappedByteBuffer buffer;
+	}
+
+	// position of a record
+	private static class Location {
+		Segment segment;
+		long position;
+		int length;
+		long userId;
+
+		Location(Segment segment, long position, int length, long userId) {
+			this.segment = segment;
+			this.position = position;
+			this.length = length;
+			this.userId = userId;
+		}
+	}
+
+	private File directory;
+	private File checkpointsFile;
+
+	// oldest first, the last one is written
+	private List<Segment> segments = new ArrayList<Segment>();
+
+	private Map<Long, Location> statuses = new HashMap<Long, Location>();
+	// ids of stored statuses by the ids of their authors
+	private Map<Long, NavigableSet<Long>> statusesByUser = new HashMap<Long, NavigableSet<Long>>();
+	// by lower-case screen names
+	private Map<String, Location> users = new HashMap<String, Location>();
+	private Map<String, Long> userWriteTimes = new HashMap<String, Long>();
+
+	// by lower-case screen names
+	private Map<String, Checkpoint> checkpoints = new HashMap<String, Checkpoint>();
+
+	public LocalStore(File directory) {
+		this.directory = directory;
+		this.checkpointsFile = new File(directory, CHECKPOINTS_FILE);
+
+		directory.mkdirs();
+		readCheckpoints();
+		openSegments();
+	}
+
+	/**
+	 * Stores the statuses which are not stored yet together with their authors.
+	 */
+	public synchronized void putStatuses(List<Status> page) {
+		try {
+			for (Status status : page) {
+				User user = status.getUser();
+				if (user == null) continue;
+
+				if (!statuses.containsKey(status.getId())) {
+					Location location = append(STATUS, status.getId(), user.getId(), user.getScreenName(), status);
+					addStatus(status.getId(), location);
+				}
+				putUserIfOld(user);
+			}
+		}
+		catch (IOException e) {
+			// the store is only an optimization, the entities can be fetched again
+		}
+	}
+
+	public synchronized void putUser(User user) {
+		try {
+			writeUser(user);
+		}
+		catch (IOException e) {
+			// the user can be fetched again
+		}
+	}
+
+	/**
+	 * Returns the stored status or null.
+	 */
+	public synchronized Status getStatus(long id) {
+		Location location = statuses.get(id);
+		return location != null ? (Status) read(location) : null;
+	}
+
+	/**
+	 * Returns the stored user or null.
+	 */
+	public synchronized User getUser(String screenName) {
+		Location location = users.get(screenName.toLowerCase(Locale.ENGLISH));
+		return location != null ? (User) read(location) : null;
+	}
+
+	/**
+	 * Returns the ids of the stored statuses of the checkpointed part of a timeline,
+	 * newest first, or null if there is no checkpoint.
+	 */
+	public synchronized long[] getTimelineIds(String screenName) {
+		Checkpoint checkpoint = checkpoints.get(screenName.toLowerCase(Locale.ENGLISH));
+		if (checkpoint == null) return null;
+
+		NavigableSet<Long> ids = statusesByUser.get(checkpoint.getUserId());
+		if (ids == null) return null;
+
+		NavigableSet<Long> range = ids.subSet(checkpoint.getOldestId(), true, checkpoint.getNewestId(), true).descendingSet();
+		long[] result = new long[range.size()];
+		int i = 0;
+		for (Long id : range) {
+			result[i++] = id;
+		}
+		return result;
+	}
+
+	/**
+	 * Records the contiguous top of a timeline given by the ids of its first rows,
+	 * newest first. The checkpoint ends before the first status which is not
+	 * stored any more (its segment has been dropped).
+	 */
+	public synchronized void setCheckpoint(String screenName, long userId, long[] ids, int end) {
+		String key = screenName.toLowerCase(Locale.ENGLISH);
+		int stored = 0;
+		while (stored < end && statuses.containsKey(ids[stored])) {
+			stored++;
+		}
+		if (stored == 0) {
+			if (checkpoints.remove(key) != null) {
+				writeCheckpoints();
+			}
+			return;
+		}
+
+		long newestId = ids[0];
+		long oldestId = ids[stored - 1];
+		Checkpoint old = checkpoints.get(key);
+		if (old != null && old.userId == userId && old.newestId == newestId && old.oldestId == oldestId) return;
+
+		checkpoints.put(key, new Checkpoint(userId, newestId, oldestId));
+		writeCheckpoints();
+	}
+
+	public synchronized void close() {
+		for (Segment segment : segments) {
+			closeSegment(segment);
+		}
+		segments.clear();
+		statuses.clear();
+		statusesByUser.clear();
+		users.clear();
+	}
+
+	private void putUserIfOld(User user) throws IOException {
+		Long written = userWriteTimes.get(user.getScreenName().toLowerCase(Locale.ENGLISH));
+		if (written == null || System.currentTimeMillis() - written > USER_REWRITE_INTERVAL) {
+			writeUser(user);
+		}
+	}
+
+	private void writeUser(User user) throws IOException {
+		String name = user.getScreenName().toLowerCase(Locale.ENGLISH);
+		users.put(name, append(USER, user.getId(), user.getId(), user.getScreenName(), user));
+		userWriteTimes.put(name, System.currentTimeMillis());
+	}
+
+	private void addStatus(long id, Location location) {
+		statuses.put(id, location);
+		NavigableSet<Long> ids = statusesByUser.get(location.userId);
+		if (ids == null) {
+			ids = new TreeSet<Long>();
+			statusesByUser.put(location.userId, ids);
+		}
+		ids.add(id);
+	}
+
+	/*
+	 * A record is:
+	 *   int    length of the rest of the record
+	 *   byte   type
+	 *   long   id of the entity
+	 *   long   id of the user (the author of a status)
+	 *   UTF    screen name of the user
+	 *   bytes  the serialized entity
+	 */
+	private Location append(byte type, long id, long userId, String screenName, Object entity) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeByte(type);
+		out.writeLong(id);
+		out.writeLong(userId);
+		out.writeUTF(screenName);
+		ObjectOutputStream objects = new ObjectOutputStream(out);
+		objects.writeObject(entity);
+		objects.flush();
+
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		record.putInt(0, record.capacity() - 4);
+
+		Segment segment = getWritableSegment();
+		long position = segment.length;
+		// a single write, so that a crash leaves at most one broken record at the end
+		while (record.hasRemaining()) {
+			segment.channel.write(record, position + record.position());
+		}
+		segment.length += record.capacity();
+
+		return new Location(segment, position, record.capacity(), userId);
+	}
+
+	private Object read(Location location) {
+		Segment segment = location.segment;
+		try {
+			ByteBuffer buffer;
+			if (segment == segments.get(segments.size() - 1)) {
+				buffer = ByteBuffer.allocate(location.length);
+				while (buffer.hasRemaining()) {
+					if (segment.channel.read(buffer, location.position + buffer.position()) < 0) return null;
+				}
+				buffer.flip();
+			} else {
+				if (segment.buffer == null || segment.buffer.capacity() < segment.length) {
+					// the segment was written when it was mapped, it does not grow any more
+					segment.buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+				}
+				buffer = segment.buffer.duplicate();
+				buffer.limit((int) (location.position + location.length));
+				buffer.position((int) location.position);
+				buffer = buffer.slice();
+			}
+
+			// skip the length, the type, the ids and the screen name
+			buffer.position(4 + 1 + 8 + 8);
+			int nameLength = buffer.getShort() & 0xFFFF;
+			buffer.position(buffer.position() + nameLength);
+
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			return new EntityInputStream(new ByteArrayInputStream(data)).readObject();
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (ClassNotFoundException e) {
+			// written by a different version of twitter4j
+			return null;
+		}
+	}
+
+	private Segment getWritableSegment() throws IOException {
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (last != null && last.length < MAX_SEGMENT_SIZE) {
+			return last;
+		}
+
+		Segment segment = openSegment(last != null ? last.number + 1 : 0);
+		segments.add(segment);
+
+		while (segments.size() > MAX_SEGMENTS) {
+			dropSegment(segments.remove(0));
+		}
+		return segment;
+	}
+
+	private void openSegments() {
+		File[] files = directory.listFiles();
+		if (files == null) return;
+
+		List<Integer> numbers = new ArrayList<Integer>();
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				try {
+					numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+				catch (NumberFormatException e) {
+					// not ours
+				}
+			}
+		}
+		Integer[] sorted = numbers.toArray(new Integer[numbers.size()]);
+		Arrays.sort(sorted);
+
+		for (int i = 0; i < sorted.length; i++) {
+			try {
+				Segment segment = openSegment(sorted[i]);
+				scan(segment);
+				segments.add(segment);
+			}
+			catch (IOException e) {
+				getSegmentFile(sorted[i]).delete();
+				// the lost statuses may belong to any checkpointed part
+				if (!checkpoints.isEmpty()) {
+					checkpoints.clear();
+					writeCheckpoints();
+				}
+			}
+		}
+
+		// the extra segments are scanned too, so that the checkpoints can be cut
+		while (segments.size() > MAX_SEGMENTS) {
+			dropSegment(segments.remove(0));
+		}
+		if (!segments.isEmpty()) {
+			// the last segment is written, it is not read through the mapping
+			segments.get(segments.size() - 1).buffer = null;
+		}
+	}
+
+	// indexes the records of the segment, a broken record at the end is cut off
+	private void scan(Segment segment) throws IOException {
+		segment.buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+		ByteBuffer buffer = segment.buffer.duplicate();
+
+		long valid = 0;
+		try {
+			while (buffer.hasRemaining()) {
+				int position = buffer.position();
+				int length = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) break;
+
+				byte type = buffer.get();
+				long id = buffer.getLong();
+				long userId = buffer.getLong();
+				byte[] name = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(name);
+
+				Location location = new Location(segment, position, length + 4, userId);
+				if (type == STATUS) {
+					addStatus(id, location);
+				} else if (type == USER) {
+					// the last record of a user wins (screen names are plain ASCII)
+					users.put(new String(name, "UTF-8").toLowerCase(Locale.ENGLISH), location);
+				}
+
+				buffer.position(position + 4 + length);
+				valid = buffer.position();
+			}
+		}
+		catch (BufferUnderflowException e) {
+			// the last record is incomplete
+		}
+
+		if (valid < segment.length) {
+			segment.buffer = null;
+			segment.raf.setLength(valid);
+			segment.length = valid;
+		}
+	}
+
+	private Segment openSegment(int number) throws IOException {
+		Segment segment = new Segment();
+		segment.number = number;
+		segment.file = getSegmentFile(number);
+		segment.raf = new RandomAccessFile(segment.file, "rw");
+		segment.channel = segment.raf.getChannel();
+		segment.length = segment.channel.size();
+		return segment;
+	}
+
+	// forgets all records of the segment and deletes it
+	private void dropSegment(Segment segment) {
+		// ids of the dropped statuses by the ids of their authors
+		Map<Long, NavigableSet<Long>> dropped = new HashMap<Long, NavigableSet<Long>>();
+		Iterator<Map.Entry<Long, Location>> it = statuses.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Location> e = it.next();
+			if (e.getValue().segment == segment) {
+				it.remove();
+				long userId = e.getValue().userId;
+				statusesByUser.get(userId).remove(e.getKey());
+
+				NavigableSet<Long> ids = dropped.get(userId);
+				if (ids == null) {
+					ids = new TreeSet<Long>();
+					dropped.put(userId, ids);
+				}
+				ids.add(e.getKey());
+			}
+		}
+		trimCheckpoints(dropped);
+
+		Iterator<Map.Entry<String, Location>> locations = users.entrySet().iterator();
+		while (locations.hasNext()) {
+			Map.Entry<String, Location> e = locations.next();
+			if (e.getValue().segment == segment) {
+				locations.remove();
+				// the user is written again with the next status
+				userWriteTimes.remove(e.getKey());
+			}
+		}
+
+		closeSegment(segment);
+		// a mapped file cannot be deleted on some platforms, it is deleted on the next start then
+		segment.file.delete();
+	}
+
+	// cuts the checkpointed parts above their newest dropped statuses
+	private void trimCheckpoints(Map<Long, NavigableSet<Long>> dropped) {
+		boolean changed = false;
+		Iterator<Map.Entry<String, Checkpoint>> it = checkpoints.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Checkpoint> e = it.next();
+			Checkpoint c = e.getValue();
+			NavigableSet<Long> ids = dropped.get(c.userId);
+			Long id = ids != null ? ids.floor(c.newestId) : null;
+			if (id == null || id < c.oldestId) continue;
+
+			if (id == c.newestId) {
+				it.remove();
+			} else {
+				e.setValue(new Checkpoint(c.userId, c.newestId, id + 1));
+			}
+			changed = true;
+		}
+
+		if (changed) {
+			writeCheckpoints();
+		}
+	}
+
+	private static void closeSegment(Segment segment) {
+		segment.buffer = null;
+		try {
+			segment.raf.close();
+		}
+		catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	private File getSegmentFile(int number) {
+		return new File(directory, SEGMENT_PREFIX + String.format("%06d", number) + SEGMENT_SUFFIX);
+	}
+
+	private void readCheckpoints() {
+		if (!checkpointsFile.exists()) return;
+
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(checkpointsFile);
+			try {
+				properties.load(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return;
+		}
+
+		for (String name : properties.stringPropertyNames()) {
+			String[] values = properties.getProperty(name).split(",");
+			try {
+				checkpoints.put(name, new Checkpoint(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])));
+			}
+			catch (RuntimeException e) {
+				// ignore a broken line
+			}
+		}
+	}
+
+	private void writeCheckpoints() {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Checkpoint> e : checkpoints.entrySet()) {
+			Checkpoint c = e.getValue();
+			properties.setProperty(e.getKey(), c.userId + "," + c.newestId + "," + c.oldestId);
+		}
+
+		// write a temporary file first, so that a crash never leaves broken checkpoints
+		File temp = new File(directory, CHECKPOINTS_FILE + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				properties.store(out, null);
+			}
+			finally {
+				out.close();
+			}
+			checkpointsFile.delete();
+			temp.renameTo(checkpointsFile);
+		}
+		catch (IOException e) {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Resolves classes of twitter4j through its own class loader, the loader of
+	 * this bundle may not see the implementation classes.
+	 */
+	private static class EntityInputStream extends ObjectInputStream {
+
+		EntityInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			try {
+				return Class.forName(desc.getName(), false, Status.class.getClassLoader());
+			}
+			catch (ClassNotFoundException e) {
+				return super.resolveClass(desc);
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+
+import twitter4j.HttpParameter;
+import twitter4j.HttpRequest;
+import twitter4j.RequestMethod;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.auth.Authorization;
+
+/**
+ * Statuses of one user from the filter stream of the streaming API (statuses/filter, follow).
+ *
+ * The request is signed by the authorization of the shared client, the stream
+ * itself is read directly because the core library does not include the
+ * streaming support.
+ */
+public class FilterStreamSource extends LineStatusSource {
+
+	private static final String FILTER_URL = "https://stream.twitter.com/1.1/statuses/filter.json";
+
+	private static final int CONNECT_TIMEOUT = 20 * 1000;
+	// the server sends an empty line every 30 seconds, the connection is stalled without them
+	private static final int READ_TIMEOUT = 90 * 1000;
+
+	private long userId;
+	private volatile HttpURLConnection connection;
+
+	public FilterStreamSource(long userId) {
+		this.userId = userId;
+	}
+
+	@Override
+	protected InputStream connect() throws IOException {
+		Authorization authorization;
+		try {
+			authorization = TwitterClient.getTwitter().getAuthorization();
+		}
+		catch (TwitterException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		if (!authorization.isEnabled()) {
+			throw new IOException("The Twitter client is not authorized");
+		}
+
+		HttpParameter[] parameters = { new HttpParameter("follow", userId) };
+		HttpRequest request = new HttpRequest(RequestMethod.POST, FILTER_URL, parameters, authorization, null);
+
+		HttpURLConnection c = (HttpURLConnection) new URL(FILTER_URL).openConnection();
+		connection = c;
+		c.setConnectTimeout(CONNECT_TIMEOUT);
+		c.setReadTimeout(READ_TIMEOUT);
+		c.setRequestMethod("POST");
+		c.setDoOutput(true);
+		c.setRequestProperty("Authorization", authorization.getAuthorizationHeader(request));
+		c.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+		OutputStream out = c.getOutputStream();
+		try {
+			out.write(("follow=" + userId).getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+
+		int code = c.getResponseCode();
+		if (code != HttpURLConnection.HTTP_OK) {
+			c.disconnect();
+			throw new IOException("The stream has been refused (HTTP " + code + ")");
+		}
+		return c.getInputStream();
+	}
+
+	@Override
+	public Status next() throws IOException {
+		Status status = super.next();
+		if (status == null) {
+			// the stream never ends, the connection has to be opened again
+			throw new EOFException("The stream has been closed by the server");
+		}
+		return status;
+	}
+
+	@Override
+	protected void disconnect() {
+		HttpURLConnection c = connection;
+		if (c != null) {
+			c.disconnect();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import twitter4j.JSONException;
+import twitter4j.JSONObject;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * Source reading statuses in the format of the streaming API, one JSON object per line.
+ */
+public abstract class LineStatusSource implements StatusSource {
+
+	private BufferedReader reader;
+
+	/**
+	 * Opens the underlying stream.
+	 */
+	protected abstract InputStream connect() throws IOException;
+
+	/**
+	 * Closes the underlying connection. Closing the reader is not enough, it
+	 * would wait for the thread blocked in reading.
+	 */
+	protected abstract void disconnect();
+
+	@Override
+	public void open() throws IOException {
+		reader = new BufferedReader(new InputStreamReader(connect(), "UTF-8"));
+	}
+
+	@Override
+	public Status next() throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			Status status = parse(line.trim());
+			if (status != null) {
+				return status;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		disconnect();
+	}
+
+	// returns null for keep-alive lines and other messages (deletions, limit notices)
+	private Status parse(String line) {
+		if (line.length() == 0) return null;
+
+		try {
+			JSONObject json = new JSONObject(line);
+			if (!json.has("text") || !json.has("user")) return null;
+
+			return TwitterObjectFactory.createStatus(line);
+		}
+		catch (JSONException e) {
+			return null;
+		}
+		catch (TwitterException e) {
+			return null;
+		}
+	}
+}
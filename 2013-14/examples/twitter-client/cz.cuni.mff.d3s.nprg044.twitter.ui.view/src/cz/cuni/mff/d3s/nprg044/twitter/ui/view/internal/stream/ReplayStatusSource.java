@@ -0,0 +1,83 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+
+import twitter4j.Status;
+
+/**
+ * Replays statuses recorded in the format of the streaming API from a file or
+ * from a socket, so that streaming can be tried without the Twitter servers.
+ *
+ * Statuses are delivered with the given delay between them. A file is replayed
+ * only once, a socket is connected again when the other side closes it.
+ */
+public class ReplayStatusSource extends LineStatusSource {
+
+	private File file;
+	private String host;
+	private int port;
+	private long delay;
+
+	private volatile InputStream in;
+	private volatile Socket socket;
+
+	public ReplayStatusSource(File file, long delay) {
+		this.file = file;
+		this.delay = delay;
+	}
+
+	public ReplayStatusSource(String host, int port, long delay) {
+		this.host = host;
+		this.port = port;
+		this.delay = delay;
+	}
+
+	@Override
+	protected InputStream connect() throws IOException {
+		if (file != null) {
+			in = new FileInputStream(file);
+		} else {
+			socket = new Socket(host, port);
+			in = socket.getInputStream();
+		}
+		return in;
+	}
+
+	@Override
+	public Status next() throws IOException {
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("The replay has been interrupted");
+			}
+		}
+
+		Status status = super.next();
+		if (status == null && socket != null) {
+			throw new IOException("The replay socket has been closed");
+		}
+		return status;
+	}
+
+	@Override
+	protected void disconnect() {
+		try {
+			if (socket != null) {
+				socket.close();
+			} else if (in != null) {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
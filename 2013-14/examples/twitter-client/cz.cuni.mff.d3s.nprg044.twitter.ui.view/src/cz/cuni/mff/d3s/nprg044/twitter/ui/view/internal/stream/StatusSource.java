@@ -0,0 +1,33 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream;
+
+import java.io.IOException;
+
+import twitter4j.Status;
+
+/**
+ * Source of statuses pushed by a server (the streaming API) or replayed from a recording.
+ *
+ * A source is opened again after it fails, so implementations must support
+ * repeated open() and close() calls.
+ */
+public interface StatusSource {
+
+	/**
+	 * Opens the connection.
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Blocks until the next status arrives.
+	 *
+	 * @return the status or null if the source has no more statuses (it is not opened again then)
+	 * @throws IOException if the connection fails or it has been closed
+	 */
+	Status next() throws IOException;
+
+	/**
+	 * Closes the connection. It can be called from any thread, a blocked
+	 * {@link #next()} call returns then.
+	 */
+	void close();
+}
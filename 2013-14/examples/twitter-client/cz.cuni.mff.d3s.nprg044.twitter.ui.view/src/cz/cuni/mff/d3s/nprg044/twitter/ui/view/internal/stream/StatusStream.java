@@ -0,0 +1,228 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+
+import twitter4j.Status;
+
+/**
+ * Streaming updates of one user timeline.
+ *
+ * Statuses are read from the source in a background job and put to a bounded
+ * queue. The queue is drained in the UI thread at most once per
+ * {@link #BATCH_DELAY}, so a burst of statuses reaches the table in one batch.
+ * When the queue is full, the oldest status is dropped and the listener is told
+ * to catch up using the REST API, the same happens after every connection.
+ * A failed connection is opened again with an exponential backoff.
+ */
+public class StatusStream {
+
+	/**
+	 * System property replacing the streaming API by a replay, either a path of
+	 * a file or host:port of a socket.
+	 */
+	public static final String REPLAY_PROPERTY = TwitterViewPlugin.PLUGIN_ID + ".stream.replay";
+
+	/**
+	 * System property with the delay between replayed statuses in milliseconds.
+	 */
+	public static final String REPLAY_DELAY_PROPERTY = TwitterViewPlugin.PLUGIN_ID + ".stream.replay.delay";
+
+	private static final long DEFAULT_REPLAY_DELAY = 500;
+
+	private static final int QUEUE_CAPACITY = 1000;
+
+	// milliseconds between batches applied to the table
+	private static final int BATCH_DELAY = 500;
+
+	private static final long MIN_RETRY_DELAY = 5 * 1000L;
+	private static final long MAX_RETRY_DELAY = 5 * 60 * 1000L;
+
+	private long userId;
+	private StatusSource source;
+	private Display display;
+	private StatusStreamListener listener;
+
+	private BlockingQueue<Status> queue = new ArrayBlockingQueue<Status>(QUEUE_CAPACITY);
+	private AtomicBoolean flushScheduled = new AtomicBoolean();
+	private AtomicBoolean missed = new AtomicBoolean();
+	private volatile boolean closed;
+
+	private ReadJob job = new ReadJob();
+
+	private Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Creates a stream of statuses of the given user, its source is the streaming
+	 * API unless a replay is set by {@link #REPLAY_PROPERTY}.
+	 */
+	public StatusStream(long userId, Display display, StatusStreamListener listener) {
+		this(userId, createSource(userId), display, listener);
+	}
+
+	public StatusStream(long userId, StatusSource source, Display display, StatusStreamListener listener) {
+		this.userId = userId;
+		this.source = source;
+		this.display = display;
+		this.listener = listener;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	public void start() {
+		job.schedule();
+	}
+
+	/**
+	 * Closes the stream, the listener is not called any more. It must be called in the UI thread.
+	 */
+	public void stop() {
+		closed = true;
+		job.cancel();
+		source.close();
+		queue.clear();
+	}
+
+	private static StatusSource createSource(long userId) {
+		String replay = System.getProperty(REPLAY_PROPERTY);
+		if (replay == null || replay.length() == 0) {
+			return new FilterStreamSource(userId);
+		}
+
+		long delay = Long.getLong(REPLAY_DELAY_PROPERTY, DEFAULT_REPLAY_DELAY);
+		int colon = replay.lastIndexOf(':');
+		if (colon > 0 && !new File(replay).exists()) {
+			try {
+				int port = Integer.parseInt(replay.substring(colon + 1));
+				return new ReplayStatusSource(replay.substring(0, colon), port, delay);
+			}
+			catch (NumberFormatException e) {
+				// not host:port, it must be a file
+			}
+		}
+		return new ReplayStatusSource(new File(replay), delay);
+	}
+
+	// called in the job
+	private void enqueue(Status status) {
+		// the timeline of the user does not show anything else (replies to the user or retweets by others)
+		if (status.getUser() == null || status.getUser().getId() != userId) return;
+
+		List<Status> statuses = Collections.singletonList(status);
+		TwitterClient.cacheStatuses(statuses);
+		TwitterViewPlugin.getDefault().getLocalStore().putStatuses(statuses);
+		TwitterClient.archiveStatuses(statuses);
+
+		while (!queue.offer(status)) {
+			// the UI thread does not keep up, the dropped statuses are fetched again by the listener
+			queue.poll();
+			missed.set(true);
+		}
+		scheduleFlush();
+	}
+
+	private void scheduleFlush() {
+		if (display.isDisposed() || !flushScheduled.compareAndSet(false, true)) return;
+
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (!closed) {
+					// statuses arriving meanwhile are applied together
+					display.timerExec(BATCH_DELAY, flush);
+				}
+			}
+		});
+	}
+
+	// called in the UI thread
+	private void flush() {
+		flushScheduled.set(false);
+		if (closed) return;
+
+		List<Status> batch = new ArrayList<Status>(queue.size());
+		queue.drainTo(batch);
+
+		// the missed statuses are older than the batch, they go first
+		if (missed.getAndSet(false)) {
+			listener.statusesMissed();
+		}
+		if (!batch.isEmpty()) {
+			listener.statusesArrived(batch);
+		}
+	}
+
+	/**
+	 * Reads the source until it is closed, a failed connection is opened again later.
+	 */
+	private class ReadJob extends Job {
+
+		private long retryDelay = MIN_RETRY_DELAY;
+
+		public ReadJob() {
+			super("Streaming timeline updates...");
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			boolean exhausted = false;
+			try {
+				source.open();
+				// statuses posted while the stream was not connected have to be fetched
+				missed.set(true);
+				scheduleFlush();
+
+				Status status;
+				while (!monitor.isCanceled() && !closed && (status = source.next()) != null) {
+					// the connection works, the next failure starts the backoff from the beginning
+					retryDelay = MIN_RETRY_DELAY;
+					enqueue(status);
+				}
+				exhausted = !monitor.isCanceled() && !closed;
+			}
+			catch (IOException e) {
+				// the source is opened again below
+			}
+			finally {
+				source.close();
+			}
+
+			if (monitor.isCanceled() || closed) {
+				return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+			}
+			if (!exhausted) {
+				schedule(retryDelay);
+				retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			}
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+
+		@Override
+		protected void canceling() {
+			// unblock the reading
+			source.close();
+		}
+	}
+}
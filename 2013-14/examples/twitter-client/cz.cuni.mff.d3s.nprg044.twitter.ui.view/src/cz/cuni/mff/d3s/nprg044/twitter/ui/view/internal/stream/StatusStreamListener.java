@@ -0,0 +1,22 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.stream;
+
+import java.util.List;
+
+import twitter4j.Status;
+
+/**
+ * Receives statuses from a {@link StatusStream}, all methods are called in the UI thread.
+ */
+public interface StatusStreamListener {
+
+	/**
+	 * Some statuses may have been missed (the stream has just been connected or the
+	 * queue overflowed), they should be fetched using the REST API.
+	 */
+	void statusesMissed();
+
+	/**
+	 * A batch of statuses has arrived, in the order they were received.
+	 */
+	void statusesArrived(List<Status> statuses);
+}
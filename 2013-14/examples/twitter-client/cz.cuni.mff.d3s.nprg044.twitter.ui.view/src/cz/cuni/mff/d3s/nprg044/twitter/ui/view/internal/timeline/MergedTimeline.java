@@ -0,0 +1,437 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import twitter4j.Paging;
+import twitter4j.Status;
+
+/**
+ * Statuses of several users in one timeline, newest first.
+ *
+ * Statuses are stored in a {@link StatusTable} in the order they arrive, the
+ * order of the timeline is kept separately as a list of table rows sorted by
+ * the status ids. Pages fetched for the users are added as sorted runs and
+ * {@link #merge()} merges all of them with the current order in one pass (a
+ * k-way merge), so new statuses of one user cost time linear in the size of
+ * the timeline and nothing is ever sorted again.
+ *
+ * A status is shown once even if it comes from more users: statuses are
+ * collapsed by their ids, retweets by the ids of the retweeted statuses. The
+ * newest occurrence (the latest retweet) stays.
+ *
+ * Statuses of a user older than the oldest one fetched for the user are not
+ * known, so only the rows newer than the oldest fetched status of every user
+ * with more statuses are shown (see {@link #getLimitingMember()}). Users whose
+ * first page has not arrived yet are not waited for, their statuses are merged
+ * in when they arrive.
+ *
+ * A refresh of a user may stop before it reaches the newest known status of
+ * the user (too many statuses arrived meanwhile). The missing range is then
+ * remembered and fetched by the next refreshes before any newer statuses, the
+ * user goes first in the refresh order until the range is filled.
+ *
+ * Instances are not thread-safe, they are accessed from the UI thread only.
+ */
+public class MergedTimeline implements RowSource {
+
+	private static final int[] NO_ROWS = {};
+
+	private Member[] members;
+
+	// rows in the order the statuses arrived
+	private StatusTable table = new StatusTable(UserTimeline.PAGE_SIZE);
+	// rows of the table sorted by the ids in the descending order
+	private int[] order = NO_ROWS;
+	private int orderSize;
+
+	// sorted runs of rows added since the last merge
+	private List<int[]> runs = new ArrayList<int[]>();
+
+	// rows by the ids of their statuses
+	private Map<Long, Integer> rowsById = new HashMap<Long, Integer>();
+	// rows by the ids of the original statuses (retweeted statuses for retweets)
+	private Map<Long, Integer> rowsByKey = new HashMap<Long, Integer>();
+
+	private TimelineIndex index = new TimelineIndex();
+
+	private Comparator<Cursor> newestFirst = new Comparator<Cursor>() {
+		@Override
+		public int compare(Cursor c1, Cursor c2) {
+			long id1 = c1.getId();
+			long id2 = c2.getId();
+			return id1 < id2 ? 1 : (id1 > id2 ? -1 : 0);
+		}
+	};
+
+	public MergedTimeline(String[] screenNames) {
+		members = new Member[screenNames.length];
+		for (int i = 0; i < screenNames.length; i++) {
+			members[i] = new Member(screenNames[i]);
+		}
+	}
+
+	public int getMemberCount() {
+		return members.length;
+	}
+
+	public String getScreenName(int member) {
+		return members[member].screenName;
+	}
+
+	// the first page of the user has arrived or the user cannot be fetched
+	public boolean isLoaded(int member) {
+		return members[member].loaded || members[member].error != null;
+	}
+
+	/**
+	 * Returns true if the timeline is made of the given users (in any case).
+	 */
+	public boolean hasMembers(String[] screenNames) {
+		if (screenNames.length != members.length) return false;
+
+		for (int i = 0; i < screenNames.length; i++) {
+			if (!screenNames[i].equalsIgnoreCase(members[i].screenName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of rows which can be shown, the rows newer than the
+	 * oldest fetched status of every user with more statuses.
+	 */
+	public int getSize() {
+		long boundary = getBoundary();
+		int low = 0;
+		int high = orderSize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (table.getId(order[mid]) >= boundary) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns true if there are no more statuses to fetch, for any user.
+	 */
+	public boolean isComplete() {
+		for (Member member : members) {
+			if (!member.complete && member.error == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getId(int position) {
+		return table.getId(order[position]);
+	}
+
+	/**
+	 * Returns ids of the rows which can be shown.
+	 */
+	public long[] getIds() {
+		long[] ids = new long[getSize()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = getId(i);
+		}
+		return ids;
+	}
+
+	public StatusRow getRow(int position) {
+		int row = order[position];
+		return new StatusRow(this, table.getId(row), row);
+	}
+
+	/**
+	 * Returns the row with the status or null if the status is not in the timeline.
+	 */
+	public StatusRow getRowById(long id) {
+		Integer row = rowsById.get(id);
+		return row != null ? new StatusRow(this, id, row) : null;
+	}
+
+	/**
+	 * Returns the user whose older statuses have to be fetched to show more
+	 * rows, -1 if there is no such user (yet).
+	 */
+	public int getLimitingMember() {
+		int limiting = -1;
+		for (int i = 0; i < members.length; i++) {
+			Member member = members[i];
+			if (member.loaded && !member.complete && member.error == null
+					&& (limiting < 0 || member.oldestId > members[limiting].oldestId)) {
+				limiting = i;
+			}
+		}
+		return limiting;
+	}
+
+	/**
+	 * Returns the users in the order they should be refreshed, the users never
+	 * fetched or with missing statuses first and then the least recently
+	 * refreshed ones.
+	 */
+	public int[] getRefreshOrder() {
+		Integer[] sorted = new Integer[members.length];
+		for (int i = 0; i < members.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer m1, Integer m2) {
+				long time1 = members[m1].gapMaxId != 0 ? 0 : members[m1].refreshTime;
+				long time2 = members[m2].gapMaxId != 0 ? 0 : members[m2].refreshTime;
+				return time1 < time2 ? -1 : (time1 > time2 ? 1 : 0);
+			}
+		});
+
+		int[] result = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			result[i] = sorted[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns paging parameters for the statuses of the user newer than the newest
+	 * known one, or for the statuses missing after the last refresh if there are any.
+	 * The known status below them is requested too (its id is the since_id plus
+	 * one), the pages show whether they reach it.
+	 */
+	public Paging getNewerPage(int member) {
+		Member m = members[member];
+		Paging paging = new Paging().count(UserTimeline.PAGE_SIZE);
+		if (m.gapMaxId != 0) {
+			paging.setSinceId(m.gapSinceId - 1);
+			paging.setMaxId(m.gapMaxId);
+		} else if (m.loaded && m.newestId != 0) {
+			paging.setSinceId(m.newestId - 1);
+		}
+		return paging;
+	}
+
+	/**
+	 * Returns paging parameters for the statuses of the user older than the oldest known one.
+	 */
+	public Paging getNextPage(int member) {
+		Paging paging = new Paging().count(UserTimeline.PAGE_SIZE);
+		if (members[member].oldestId != 0) {
+			paging.setMaxId(members[member].oldestId - 1);
+		}
+		return paging;
+	}
+
+	/**
+	 * Adds a page of statuses of the user, they are shown after the next {@link #merge()}.
+	 * An empty page of older statuses marks the end of the timeline of the user.
+	 *
+	 * @param older whether the page holds statuses older than the oldest known one
+	 * @param truncated whether the newer statuses stop before the ones the page
+	 *        was requested after, the rest is requested by {@link #getNewerPage}
+	 */
+	public void add(int member, List<Status> page, boolean older, boolean truncated) {
+		Member m = members[member];
+		// the page holds the statuses newer than this one (a refresh)
+		long sinceId = m.gapMaxId != 0 ? m.gapSinceId : m.newestId;
+		long pageOldestId = 0;
+		if (!older) {
+			m.refreshTime = System.currentTimeMillis();
+		}
+		if (page.isEmpty() && (older || !m.loaded)) {
+			m.complete = true;
+		}
+		m.loaded = true;
+		m.error = null;
+
+		int[] run = new int[page.size()];
+		int count = 0;
+		for (Status status : page) {
+			long id = status.getId();
+			m.newestId = Math.max(m.newestId, id);
+			m.oldestId = m.oldestId == 0 ? id : Math.min(m.oldestId, id);
+			pageOldestId = pageOldestId == 0 ? id : Math.min(pageOldestId, id);
+			if (rowsById.containsKey(id)) continue;
+
+			long key = status.isRetweet() && status.getRetweetedStatus() != null ? status.getRetweetedStatus().getId() : id;
+			Integer existing = rowsByKey.get(key);
+			if (existing != null) {
+				if (table.getId(existing) > id) continue;
+
+				// the older occurrence is skipped by the next merge
+				rowsById.remove(table.getId(existing));
+				table.setState(existing, table.getId(existing), StatusTable.UNAVAILABLE);
+			}
+
+			int row = table.getSize();
+			table.insert(row, 1);
+			table.setStatus(row, status);
+			index.add(table, row);
+			rowsById.put(id, row);
+			rowsByKey.put(key, row);
+			run[count++] = row;
+		}
+
+		if (count > 0) {
+			run = Arrays.copyOf(run, count);
+			sortRun(run);
+			runs.add(run);
+		}
+
+		if (!older) {
+			if (truncated && sinceId != 0 && pageOldestId != 0) {
+				// the statuses between the known ones and the oldest fetched one are still missing
+				m.gapSinceId = sinceId;
+				m.gapMaxId = pageOldestId - 1;
+			} else {
+				m.gapSinceId = 0;
+				m.gapMaxId = 0;
+			}
+		}
+	}
+
+	/**
+	 * Remembers that the statuses of the user cannot be fetched, the user does
+	 * not limit the shown rows then.
+	 */
+	public void setFailed(int member, String error) {
+		members[member].error = error;
+	}
+
+	/**
+	 * Merges the pages added since the last merge into the timeline.
+	 */
+	public void merge() {
+		if (runs.isEmpty()) return;
+
+		PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(runs.size() + 1, newestFirst);
+		int total = orderSize;
+		if (orderSize > 0) {
+			heads.add(new Cursor(order, orderSize));
+		}
+		for (int[] run : runs) {
+			heads.add(new Cursor(run, run.length));
+			total += run.length;
+		}
+		runs.clear();
+
+		int[] merged = new int[total];
+		int size = 0;
+		while (!heads.isEmpty()) {
+			Cursor head = heads.poll();
+			int row = head.rows[head.position++];
+			// rows of collapsed statuses are dropped
+			if (table.getState(row) == StatusTable.STATUS) {
+				merged[size++] = row;
+			}
+			if (head.position < head.end) {
+				heads.add(head);
+			}
+		}
+
+		order = merged;
+		orderSize = size;
+	}
+
+	/**
+	 * Returns ids of the shown statuses containing all words, @mentions and
+	 * #hashtags of the query, newest first. The last word of the query matches
+	 * as a prefix.
+	 *
+	 * @return the ids or null if the query has no words
+	 */
+	public long[] filter(String query) {
+		long[] ids = index.query(query);
+		if (ids == null) return null;
+
+		long boundary = getBoundary();
+		long[] result = new long[ids.length];
+		int count = 0;
+		for (int i = ids.length - 1; i >= 0 && ids[i] >= boundary; i--) {
+			// collapsed statuses are no longer in the timeline
+			if (rowsById.containsKey(ids[i])) {
+				result[count++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	@Override
+	public StatusTable getTable() {
+		return table;
+	}
+
+	@Override
+	public int indexOf(long id) {
+		Integer row = rowsById.get(id);
+		return row != null ? row : -1;
+	}
+
+	// rows with older statuses may miss statuses of the limiting user
+	private long getBoundary() {
+		int limiting = getLimitingMember();
+		return limiting >= 0 ? members[limiting].oldestId : Long.MIN_VALUE;
+	}
+
+	// pages come sorted already, so the insertion sort only checks the order
+	private void sortRun(int[] run) {
+		for (int i = 1; i < run.length; i++) {
+			int row = run[i];
+			long id = table.getId(row);
+			int j = i - 1;
+			while (j >= 0 && table.getId(run[j]) < id) {
+				run[j + 1] = run[j];
+				j--;
+			}
+			run[j + 1] = row;
+		}
+	}
+
+	private static class Member {
+
+		private String screenName;
+		private boolean loaded;
+		private boolean complete;
+		// the last error, the user is skipped until it is fetched successfully
+		private String error;
+		// 0 until the first status is known
+		private long newestId;
+		private long oldestId;
+		private long refreshTime;
+		// statuses with ids in (gapSinceId, gapMaxId] have not been fetched, gapMaxId is 0 if there are none
+		private long gapSinceId;
+		private long gapMaxId;
+
+		Member(String screenName) {
+			this.screenName = screenName;
+		}
+	}
+
+	// the next row of a sorted run
+	private class Cursor {
+
+		private int[] rows;
+		private int end;
+		private int position;
+
+		Cursor(int[] rows, int end) {
+			this.rows = rows;
+			this.end = end;
+		}
+
+		long getId() {
+			return table.getId(rows[position]);
+		}
+	}
+}
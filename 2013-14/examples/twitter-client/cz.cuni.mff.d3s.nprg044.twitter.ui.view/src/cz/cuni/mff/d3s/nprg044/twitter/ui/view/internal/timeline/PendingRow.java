@@ -0,0 +1,23 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+/**
+ * Placeholder row shown in the timeline table while the real data
+ * are being fetched in the background.
+ */
+public final class PendingRow {
+
+	private String msg;
+
+	public PendingRow(String msg) {
+		this.msg = msg;
+	}
+
+	public String getMessage() {
+		return msg;
+	}
+
+	@Override
+	public String toString() {
+		return msg;
+	}
+}
@@ -0,0 +1,105 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+/**
+ * Difference between two lists of rows given by their ids, both sorted in the
+ * descending order (as all timelines are) or both sorted by a {@link RowSorter}.
+ * It is computed in one pass over both lists.
+ *
+ * Removing the removed rows (from the last one) and then inserting the inserted
+ * rows (from the first one) turns the old list into the new one. Rows present
+ * in both lists keep their items, if their content changes it is updated
+ * separately.
+ */
+public final class RowDelta {
+
+	private int oldSize;
+	private int newSize;
+
+	// positions in the old list, ascending
+	private int[] removed;
+	private int removedCount;
+
+	// positions in the new list, ascending
+	private int[] inserted;
+	private int insertedCount;
+
+	// new positions of the old rows, -1 for the removed ones
+	private int[] newPositions;
+
+	private RowDelta(int oldSize, int newSize) {
+		this.oldSize = oldSize;
+		this.newSize = newSize;
+		this.removed = new int[oldSize];
+		this.inserted = new int[newSize];
+		this.newPositions = new int[oldSize];
+	}
+
+	public static RowDelta compute(long[] oldIds, long[] newIds) {
+		return compute(oldIds, newIds, null);
+	}
+
+	/**
+	 * Computes the difference of lists sorted by the sorter, the descending
+	 * order of the ids if it is null.
+	 */
+	public static RowDelta compute(long[] oldIds, long[] newIds, RowSorter sorter) {
+		RowDelta delta = new RowDelta(oldIds.length, newIds.length);
+		int i = 0;
+		int j = 0;
+		while (i < oldIds.length || j < newIds.length) {
+			int order = j == newIds.length ? -1 : i == oldIds.length ? 1 : compare(oldIds[i], newIds[j], sorter);
+			if (order < 0) {
+				delta.newPositions[i] = -1;
+				delta.removed[delta.removedCount++] = i++;
+			} else if (order > 0) {
+				delta.inserted[delta.insertedCount++] = j++;
+			} else {
+				delta.newPositions[i++] = j++;
+			}
+		}
+		return delta;
+	}
+
+	private static int compare(long id1, long id2, RowSorter sorter) {
+		if (sorter != null) {
+			return sorter.compare(id1, id2);
+		}
+		return id1 > id2 ? -1 : id1 < id2 ? 1 : 0;
+	}
+
+	public int getNewSize() {
+		return newSize;
+	}
+
+	public boolean isEmpty() {
+		return removedCount == 0 && insertedCount == 0;
+	}
+
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	public int getRemoved(int i) {
+		return removed[i];
+	}
+
+	public int getInsertedCount() {
+		return insertedCount;
+	}
+
+	public int getInserted(int i) {
+		return inserted[i];
+	}
+
+	/**
+	 * Returns the new position of the row at the old position, -1 if the row
+	 * has been removed. Positions after the old list (rows which are not part
+	 * of it) move by the change of its size.
+	 */
+	public int getNewPosition(int oldPosition) {
+		if (oldPosition >= oldSize) {
+			return oldPosition - oldSize + newSize;
+		}
+		return newPositions[oldPosition];
+	}
+}
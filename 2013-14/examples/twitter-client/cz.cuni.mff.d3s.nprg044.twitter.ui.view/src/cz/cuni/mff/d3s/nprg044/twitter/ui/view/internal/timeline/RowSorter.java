@@ -0,0 +1,157 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Order of the rows of a timeline by a column, given by their ids.
+ *
+ * Rows are compared by the sort keys kept by the {@link StatusTable} (the ids
+ * for the time, collation keys of the screen names and of the texts), nothing
+ * is read from the statuses and no string is compared. Most texts differ in
+ * their first characters, which are compared as numbers.
+ * Equal keys are ordered by the ids, so the order is total and stable: a row
+ * never moves when other rows are added.
+ *
+ * Only rows whose statuses have been stored at least once have the keys, the
+ * others (gaps, statuses known only by their ids) are left out of the sorted
+ * lists. Keys are kept when the statuses are evicted.
+ *
+ * Statuses arriving later are merged into a sorted list in one pass (see
+ * {@link #merge(long[], long[])}), so the list is never sorted again.
+ */
+public class RowSorter {
+
+	// columns the rows can be sorted by
+	public static final int TIME = 0;
+	public static final int AUTHOR = 1;
+	public static final int TEXT = 2;
+
+	private RowSource source;
+	private int column;
+	private boolean ascending;
+
+	private Comparator<Long> comparator = new Comparator<Long>() {
+		@Override
+		public int compare(Long id1, Long id2) {
+			return RowSorter.this.compare(id1, id2);
+		}
+	};
+
+	public RowSorter(UserTimeline timeline, int column, boolean ascending) {
+		this.source = timeline;
+		this.column = column;
+		this.ascending = ascending;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public boolean isAscending() {
+		return ascending;
+	}
+
+	/**
+	 * Compares rows with the given ids, both must have the sort keys.
+	 */
+	public int compare(long id1, long id2) {
+		if (id1 == id2) return 0;
+
+		int result = 0;
+		if (column != TIME) {
+			StatusTable table = source.getTable();
+			int index1 = source.indexOf(id1);
+			int index2 = source.indexOf(id2);
+			if (column == AUTHOR) {
+				result = table.getUserSortKey(index1).compareTo(table.getUserSortKey(index2));
+			} else {
+				result = table.compareTextKeys(index1, index2);
+			}
+		}
+		if (result == 0) {
+			// ids grow with the time
+			result = id1 < id2 ? -1 : 1;
+		}
+		return ascending ? result : -result;
+	}
+
+	/**
+	 * Returns the ids of the rows with the sort keys sorted.
+	 */
+	public long[] sort(long[] ids) {
+		Long[] sorted = getSortable(ids);
+		// merge sort, stable and linear for runs (a timeline sorted by the time is one)
+		Arrays.sort(sorted, comparator);
+
+		long[] result = new long[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			result[i] = sorted[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the sorted ids with the added ids (in any order) merged in. Rows
+	 * without the sort keys and rows which are in the sorted list already are
+	 * not added. The sorted list is not changed.
+	 */
+	public long[] merge(long[] sorted, long[] added) {
+		long[] run = sort(added);
+		if (run.length == 0) return sorted;
+
+		long[] result = new long[sorted.length + run.length];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < sorted.length || j < run.length) {
+			int order = i == sorted.length ? 1 : j == run.length ? -1 : compare(sorted[i], run[j]);
+			if (order <= 0) {
+				result[size++] = sorted[i++];
+				if (order == 0) {
+					// the row is there already
+					j++;
+				}
+			} else {
+				result[size++] = run[j++];
+			}
+		}
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Returns the position of the row in the sorted ids or -1.
+	 */
+	public int search(long[] sorted, long id) {
+		int index = source.indexOf(id);
+		if (index < 0 || !source.getTable().hasSortKeys(index)) return -1;
+
+		int low = 0;
+		int high = sorted.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int order = compare(sorted[mid], id);
+			if (order < 0) {
+				low = mid + 1;
+			} else if (order > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private Long[] getSortable(long[] ids) {
+		StatusTable table = source.getTable();
+		Long[] sortable = new Long[ids.length];
+		int count = 0;
+		for (long id : ids) {
+			int index = source.indexOf(id);
+			if (index >= 0 && table.hasSortKeys(index)) {
+				sortable[count++] = id;
+			}
+		}
+		return count == ids.length ? sortable : Arrays.copyOf(sortable, count);
+	}
+}
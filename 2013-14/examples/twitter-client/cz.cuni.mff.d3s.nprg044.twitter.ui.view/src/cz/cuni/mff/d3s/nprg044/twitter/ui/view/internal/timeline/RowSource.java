@@ -0,0 +1,14 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+/**
+ * Timeline whose rows are read through {@link StatusRow} flyweights.
+ */
+interface RowSource {
+
+	StatusTable getTable();
+
+	/**
+	 * Returns the row of the table holding the status with the given id or -1.
+	 */
+	int indexOf(long id);
+}
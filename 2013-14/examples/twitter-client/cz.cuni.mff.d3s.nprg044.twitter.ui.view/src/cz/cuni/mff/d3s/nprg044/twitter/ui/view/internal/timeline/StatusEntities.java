@@ -0,0 +1,55 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+/**
+ * Mentions, hashtags and links in the text of a status.
+ *
+ * The entities are computed once, when the status is stored in a timeline,
+ * and kept as character offsets next to its text. This is only a view of them
+ * (a {@link StatusRow} adapts to it), nothing is copied and the text is not
+ * scanned again. It is valid until the rows of the timeline change, so it
+ * should be used right away in the UI thread.
+ */
+public final class StatusEntities {
+
+	// kinds of entities
+	public static final int MENTION = 0;
+	public static final int HASHTAG = 1;
+	public static final int URL = 2;
+
+	private StatusTable table;
+	private int index;
+
+	StatusEntities(StatusTable table, int index) {
+		this.table = table;
+		this.index = index;
+	}
+
+	public int getCount() {
+		return table.getEntityCount(index);
+	}
+
+	/**
+	 * Returns the offset of the first character of the entity in the text.
+	 */
+	public int getStart(int entity) {
+		return table.getEntityStart(index, entity);
+	}
+
+	/**
+	 * Returns the offset after the last character of the entity in the text.
+	 */
+	public int getEnd(int entity) {
+		return table.getEntityEnd(index, entity);
+	}
+
+	public int getKind(int entity) {
+		return table.getEntityKind(index, entity);
+	}
+
+	/**
+	 * Returns the text of the entity including the '@' or '#'.
+	 */
+	public String getText(int entity) {
+		return table.getText(index).substring(getStart(entity), getEnd(entity));
+	}
+}
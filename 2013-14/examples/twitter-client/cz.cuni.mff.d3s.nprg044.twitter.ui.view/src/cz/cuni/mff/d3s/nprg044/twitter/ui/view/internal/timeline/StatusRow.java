@@ -0,0 +1,94 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+import java.util.Date;
+
+/**
+ * Lightweight view of a status row of a {@link UserTimeline} or a {@link MergedTimeline},
+ * the element shown by the table.
+ *
+ * It holds only the timeline and the id of the status, the data are read from
+ * the columns of the timeline. Getters return null (or 0) if the status is no
+ * longer materialized in the timeline.
+ */
+public final class StatusRow {
+
+	private RowSource timeline;
+	private long id;
+	// the last known position of the row, rows move when others are inserted
+	private int index;
+
+	StatusRow(RowSource timeline, long id, int index) {
+		this.timeline = timeline;
+		this.id = id;
+		this.index = index;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getText() {
+		StatusTable table = getTable();
+		return table != null ? table.getText(index) : null;
+	}
+
+	/**
+	 * Returns the mentions, hashtags and links in the text or null if the status
+	 * is not materialized. They are read from the timeline, use them right away.
+	 */
+	public StatusEntities getEntities() {
+		StatusTable table = getTable();
+		return table != null ? new StatusEntities(table, index) : null;
+	}
+
+	public Date getCreatedAt() {
+		StatusTable table = getTable();
+		return table != null ? new Date(table.getTime(index)) : null;
+	}
+
+	public int getRetweetCount() {
+		StatusTable table = getTable();
+		return table != null ? table.getRetweetCount(index) : 0;
+	}
+
+	public String getScreenName() {
+		StatusTable table = getTable();
+		return table != null ? table.getScreenName(index) : null;
+	}
+
+	public String getProfileImageURL() {
+		StatusTable table = getTable();
+		return table != null ? table.getProfileImageURL(index) : null;
+	}
+
+	// returns null if the status is not materialized
+	private StatusTable getTable() {
+		StatusTable table = timeline.getTable();
+		if (index >= table.getSize() || table.getId(index) != id) {
+			index = timeline.indexOf(id);
+			if (index < 0) {
+				index = 0;
+				return null;
+			}
+		}
+		return table.getState(index) == StatusTable.STATUS ? table : null;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof StatusRow)) return false;
+
+		StatusRow other = (StatusRow) obj;
+		return other.timeline == timeline && other.id == id;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (id ^ (id >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "@" + getScreenName() + ": " + getText();
+	}
+}
@@ -0,0 +1,434 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import twitter4j.Status;
+import twitter4j.TweetEntity;
+import twitter4j.User;
+
+/**
+ * Rows of statuses stored in primitive columns.
+ *
+ * Only the data the views show is kept: the id, the creation time, the retweet
+ * count, the text and the author. Texts are stored in one shared character pool
+ * and authors in a table of distinct users, so a row costs a few dozen bytes
+ * instead of a whole twitter4j object graph. Offsets of the entities of a text
+ * (mentions, hashtags, links) are computed once and kept in the pool right
+ * after the text.
+ *
+ * Keys for sorting the rows are computed when a status is stored as well, they
+ * are kept when the status is evicted (see {@link RowSorter}). The beginning of
+ * the collation key of a text is packed in numbers, which decides most
+ * comparisons, the rest of the key is kept for texts beginning the same.
+ *
+ * Besides statuses, a row may be evicted (only its id is known), a gap or
+ * unavailable. Rows are addressed by their index, inserting and removing rows
+ * shifts all columns.
+ */
+public class StatusTable {
+
+	public static final byte EVICTED = 0;
+	public static final byte STATUS = 1;
+	public static final byte GAP = 2;
+	public static final byte UNAVAILABLE = 3;
+
+	// the text pool is compacted when more than this part of it is not used
+	private static final double MAX_GARBAGE = 0.5;
+	private static final int MIN_COMPACTED_POOL = 64 * 1024;
+
+	// numbers holding the beginning of the collation key of a text, two bytes per character
+	private static final int TEXT_KEY_LENGTH = 2;
+
+	private int size;
+
+	private long[] ids;
+	private byte[] states;
+	private long[] times;
+	private int[] retweets;
+	private int[] users;
+	private int[] textStarts;
+	private int[] textLengths;
+	// entities follow the text in the pool, three characters each (start, end, kind)
+	private int[] entityLengths;
+	// the text of the row has been added to the index of the timeline
+	private boolean[] indexed;
+	// the status has been stored in the row, its sort keys are known
+	private boolean[] keyed;
+	// beginnings of the collation keys of the texts, TEXT_KEY_LENGTH numbers per row
+	private long[] textKeys;
+	// the rest of the collation keys, null if the whole key is packed in the numbers
+	private byte[][] textKeyTails;
+
+	// texts (and entities) of all rows, one after another
+	private char[] textPool = new char[1024];
+	private int textPoolUsed;
+	// characters of texts of evicted or removed rows
+	private int textGarbage;
+
+	// distinct authors
+	private int userCount;
+	private long[] userIds = new long[4];
+	private String[] screenNames = new String[4];
+	private String[] imageUrls = new String[4];
+	private CollationKey[] userKeys = new CollationKey[4];
+	private Map<Long, Integer> userIndices = new HashMap<Long, Integer>();
+
+	// case and accents do not matter when sorting
+	private Collator collator = Collator.getInstance();
+
+	public StatusTable(int capacity) {
+		ids = new long[capacity];
+		states = new byte[capacity];
+		times = new long[capacity];
+		retweets = new int[capacity];
+		users = new int[capacity];
+		textStarts = new int[capacity];
+		textLengths = new int[capacity];
+		entityLengths = new int[capacity];
+		indexed = new boolean[capacity];
+		keyed = new boolean[capacity];
+		textKeys = new long[capacity * TEXT_KEY_LENGTH];
+		textKeyTails = new byte[capacity][];
+		collator.setStrength(Collator.PRIMARY);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public long getId(int index) {
+		return ids[index];
+	}
+
+	public byte getState(int index) {
+		return states[index];
+	}
+
+	public long getTime(int index) {
+		return times[index];
+	}
+
+	public int getRetweetCount(int index) {
+		return retweets[index];
+	}
+
+	public String getText(int index) {
+		return new String(textPool, textStarts[index], textLengths[index]);
+	}
+
+	public int getEntityCount(int index) {
+		return entityLengths[index] / 3;
+	}
+
+	// offsets of entities are indices of characters of the text
+	public int getEntityStart(int index, int entity) {
+		return textPool[textStarts[index] + textLengths[index] + entity * 3];
+	}
+
+	public int getEntityEnd(int index, int entity) {
+		return textPool[textStarts[index] + textLengths[index] + entity * 3 + 1];
+	}
+
+	public int getEntityKind(int index, int entity) {
+		return textPool[textStarts[index] + textLengths[index] + entity * 3 + 2];
+	}
+
+	public long getUserId(int index) {
+		return userIds[users[index]];
+	}
+
+	public String getScreenName(int index) {
+		return screenNames[users[index]];
+	}
+
+	public String getProfileImageURL(int index) {
+		return imageUrls[users[index]];
+	}
+
+	public boolean isIndexed(int index) {
+		return indexed[index];
+	}
+
+	public void setIndexed(int index) {
+		indexed[index] = true;
+	}
+
+	public boolean hasSortKeys(int index) {
+		return keyed[index];
+	}
+
+	public CollationKey getUserSortKey(int index) {
+		return userKeys[users[index]];
+	}
+
+	/**
+	 * Compares the texts of two rows by their sort keys, ignoring case and
+	 * accents, as the collator compares the texts. The texts themselves are
+	 * not needed, the rows may be evicted.
+	 */
+	public int compareTextKeys(int index, int otherIndex) {
+		for (int i = 0; i < TEXT_KEY_LENGTH; i++) {
+			long key = textKeys[index * TEXT_KEY_LENGTH + i];
+			long otherKey = textKeys[otherIndex * TEXT_KEY_LENGTH + i];
+			if (key != otherKey) {
+				return key < otherKey ? -1 : 1;
+			}
+		}
+
+		// the texts begin the same (often "RT @someone: " or "@user "), the rest of the keys decides
+		byte[] tail = textKeyTails[index];
+		byte[] otherTail = textKeyTails[otherIndex];
+		int length = tail != null ? tail.length : 0;
+		int otherLength = otherTail != null ? otherTail.length : 0;
+		for (int i = 0; i < Math.min(length, otherLength); i++) {
+			int b = tail[i] & 0xff;
+			int otherB = otherTail[i] & 0xff;
+			if (b != otherB) {
+				return b < otherB ? -1 : 1;
+			}
+		}
+		return length < otherLength ? -1 : (length > otherLength ? 1 : 0);
+	}
+
+	/**
+	 * Inserts the given number of evicted rows at the position.
+	 */
+	public void insert(int index, int count) {
+		ensureCapacity(size + count);
+
+		int moved = size - index;
+		System.arraycopy(ids, index, ids, index + count, moved);
+		System.arraycopy(states, index, states, index + count, moved);
+		System.arraycopy(times, index, times, index + count, moved);
+		System.arraycopy(retweets, index, retweets, index + count, moved);
+		System.arraycopy(users, index, users, index + count, moved);
+		System.arraycopy(textStarts, index, textStarts, index + count, moved);
+		System.arraycopy(textLengths, index, textLengths, index + count, moved);
+		System.arraycopy(entityLengths, index, entityLengths, index + count, moved);
+		System.arraycopy(indexed, index, indexed, index + count, moved);
+		System.arraycopy(keyed, index, keyed, index + count, moved);
+		System.arraycopy(textKeys, index * TEXT_KEY_LENGTH, textKeys, (index + count) * TEXT_KEY_LENGTH, moved * TEXT_KEY_LENGTH);
+		System.arraycopy(textKeyTails, index, textKeyTails, index + count, moved);
+
+		Arrays.fill(states, index, index + count, EVICTED);
+		Arrays.fill(textKeyTails, index, index + count, null);
+		Arrays.fill(textLengths, index, index + count, 0);
+		Arrays.fill(entityLengths, index, index + count, 0);
+		Arrays.fill(indexed, index, index + count, false);
+		Arrays.fill(keyed, index, index + count, false);
+		size += count;
+	}
+
+	public void remove(int index) {
+		releaseText(index);
+
+		int moved = size - index - 1;
+		System.arraycopy(ids, index + 1, ids, index, moved);
+		System.arraycopy(states, index + 1, states, index, moved);
+		System.arraycopy(times, index + 1, times, index, moved);
+		System.arraycopy(retweets, index + 1, retweets, index, moved);
+		System.arraycopy(users, index + 1, users, index, moved);
+		System.arraycopy(textStarts, index + 1, textStarts, index, moved);
+		System.arraycopy(textLengths, index + 1, textLengths, index, moved);
+		System.arraycopy(entityLengths, index + 1, entityLengths, index, moved);
+		System.arraycopy(indexed, index + 1, indexed, index, moved);
+		System.arraycopy(keyed, index + 1, keyed, index, moved);
+		System.arraycopy(textKeys, (index + 1) * TEXT_KEY_LENGTH, textKeys, index * TEXT_KEY_LENGTH, moved * TEXT_KEY_LENGTH);
+		System.arraycopy(textKeyTails, index + 1, textKeyTails, index, moved);
+		size--;
+		textKeyTails[size] = null;
+	}
+
+	/**
+	 * Stores the status in the row, the row gets its id.
+	 */
+	public void setStatus(int index, Status status) {
+		releaseText(index);
+
+		ids[index] = status.getId();
+		states[index] = STATUS;
+		times[index] = status.getCreatedAt() != null ? status.getCreatedAt().getTime() : 0;
+		retweets[index] = status.getRetweetCount();
+		users[index] = addUser(status.getUser());
+
+		String text = status.getText() != null ? status.getText() : "";
+		char[] entities = getEntities(status, text);
+		textStarts[index] = addText(text, entities);
+		textLengths[index] = text.length();
+		entityLengths[index] = entities.length;
+
+		setTextKey(index, text);
+		keyed[index] = true;
+	}
+
+	/**
+	 * Marks the row as a gap, an evicted row or an unavailable row.
+	 */
+	public void setState(int index, long id, byte state) {
+		releaseText(index);
+
+		ids[index] = id;
+		states[index] = state;
+	}
+
+	/**
+	 * Keeps only the id of a status row.
+	 */
+	public void evict(int index) {
+		if (states[index] == STATUS) {
+			setState(index, ids[index], EVICTED);
+		}
+	}
+
+	private int addUser(User user) {
+		if (user == null) {
+			return addUser(0, "", null);
+		}
+		return addUser(user.getId(), user.getScreenName(), user.getProfileImageURL());
+	}
+
+	private int addUser(long id, String screenName, String imageUrl) {
+		Integer index = userIndices.get(id);
+		if (index != null) {
+			// the user may have changed the name or the image meanwhile, but the sort
+			// key stays, lists of rows sorted by it would not be sorted anymore
+			screenNames[index] = screenName;
+			imageUrls[index] = imageUrl;
+			return index;
+		}
+
+		if (userCount == userIds.length) {
+			userIds = Arrays.copyOf(userIds, userCount * 2);
+			screenNames = Arrays.copyOf(screenNames, userCount * 2);
+			imageUrls = Arrays.copyOf(imageUrls, userCount * 2);
+			userKeys = Arrays.copyOf(userKeys, userCount * 2);
+		}
+		userIds[userCount] = id;
+		screenNames[userCount] = screenName;
+		imageUrls[userCount] = imageUrl;
+		userKeys[userCount] = getUserKey(screenName);
+		userIndices.put(id, userCount);
+		return userCount++;
+	}
+
+	private CollationKey getUserKey(String screenName) {
+		return collator.getCollationKey(screenName != null ? screenName : "");
+	}
+
+	// the first bytes of the collation key as unsigned numbers, shifted to compare as signed ones, and the rest
+	private void setTextKey(int index, String text) {
+		byte[] bytes = collator.getCollationKey(text).toByteArray();
+		for (int i = 0; i < TEXT_KEY_LENGTH; i++) {
+			long key = 0;
+			for (int j = i * 8; j < (i + 1) * 8; j++) {
+				key = (key << 8) | (j < bytes.length ? bytes[j] & 0xff : 0);
+			}
+			textKeys[index * TEXT_KEY_LENGTH + i] = key ^ Long.MIN_VALUE;
+		}
+
+		int packed = TEXT_KEY_LENGTH * 8;
+		textKeyTails[index] = bytes.length > packed ? Arrays.copyOfRange(bytes, packed, bytes.length) : null;
+	}
+
+	// entities as (start, end, kind) triples, Twitter counts the offsets in code points
+	private static char[] getEntities(Status status, String text) {
+		TweetEntity[][] groups = { status.getUserMentionEntities(), status.getHashtagEntities(),
+				status.getURLEntities(), status.getMediaEntities() };
+		int[] kinds = { StatusEntities.MENTION, StatusEntities.HASHTAG, StatusEntities.URL, StatusEntities.URL };
+
+		int count = 0;
+		for (TweetEntity[] group : groups) {
+			count += group != null ? group.length : 0;
+		}
+
+		char[] entities = new char[count * 3];
+		int length = 0;
+		for (int i = 0; i < groups.length; i++) {
+			if (groups[i] == null) continue;
+
+			for (TweetEntity entity : groups[i]) {
+				int start = toCharOffset(text, entity.getStart());
+				int end = toCharOffset(text, entity.getEnd());
+				if (start >= end) continue;
+
+				entities[length++] = (char) start;
+				entities[length++] = (char) end;
+				entities[length++] = (char) kinds[i];
+			}
+		}
+		return length == entities.length ? entities : Arrays.copyOf(entities, length);
+	}
+
+	private static int toCharOffset(String text, int codePoints) {
+		if (codePoints <= 0) return 0;
+
+		int length = text.codePointCount(0, text.length());
+		return codePoints >= length ? text.length() : text.offsetByCodePoints(0, codePoints);
+	}
+
+	private int addText(String text, char[] entities) {
+		int length = text.length() + entities.length;
+		if (textPoolUsed + length > textPool.length) {
+			if (textGarbage > MIN_COMPACTED_POOL / 2 && textGarbage > textPoolUsed * MAX_GARBAGE) {
+				compactText();
+			}
+			if (textPoolUsed + length > textPool.length) {
+				textPool = Arrays.copyOf(textPool, Math.max(textPool.length * 2, textPoolUsed + length));
+			}
+		}
+
+		int start = textPoolUsed;
+		text.getChars(0, text.length(), textPool, start);
+		System.arraycopy(entities, 0, textPool, start + text.length(), entities.length);
+		textPoolUsed += length;
+		return start;
+	}
+
+	private void releaseText(int index) {
+		if (states[index] == STATUS) {
+			textGarbage += textLengths[index] + entityLengths[index];
+			textLengths[index] = 0;
+			entityLengths[index] = 0;
+		}
+	}
+
+	// moves texts of all status rows to the beginning of a new pool
+	private void compactText() {
+		char[] pool = new char[Math.max(textPool.length, MIN_COMPACTED_POOL)];
+		int used = 0;
+		for (int i = 0; i < size; i++) {
+			if (states[i] == STATUS) {
+				int length = textLengths[i] + entityLengths[i];
+				System.arraycopy(textPool, textStarts[i], pool, used, length);
+				textStarts[i] = used;
+				used += length;
+			}
+		}
+
+		textPool = pool;
+		textPoolUsed = used;
+		textGarbage = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > ids.length) {
+			int newLength = Math.max(capacity, ids.length * 2);
+			ids = Arrays.copyOf(ids, newLength);
+			states = Arrays.copyOf(states, newLength);
+			times = Arrays.copyOf(times, newLength);
+			retweets = Arrays.copyOf(retweets, newLength);
+			users = Arrays.copyOf(users, newLength);
+			textStarts = Arrays.copyOf(textStarts, newLength);
+			textLengths = Arrays.copyOf(textLengths, newLength);
+			entityLengths = Arrays.copyOf(entityLengths, newLength);
+			indexed = Arrays.copyOf(indexed, newLength);
+			keyed = Arrays.copyOf(keyed, newLength);
+			textKeys = Arrays.copyOf(textKeys, newLength * TEXT_KEY_LENGTH);
+			textKeyTails = Arrays.copyOf(textKeyTails, newLength);
+		}
+	}
+}
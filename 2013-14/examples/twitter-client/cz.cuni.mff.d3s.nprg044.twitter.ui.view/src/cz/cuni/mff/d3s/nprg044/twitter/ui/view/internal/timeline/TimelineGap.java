@@ -0,0 +1,39 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+/**
+ * Marker row standing for statuses which have not been fetched yet because
+ * too many new statuses arrived since the last refresh. It covers statuses
+ * with ids in the range (sinceId, maxId].
+ */
+public final class TimelineGap {
+
+	private long sinceId;
+	private long maxId;
+	private boolean loading;
+
+	public TimelineGap(long sinceId, long maxId) {
+		this.sinceId = sinceId;
+		this.maxId = maxId;
+	}
+
+	public long getSinceId() {
+		return sinceId;
+	}
+
+	public long getMaxId() {
+		return maxId;
+	}
+
+	public boolean isLoading() {
+		return loading;
+	}
+
+	public void setLoading(boolean loading) {
+		this.loading = loading;
+	}
+
+	@Override
+	public String toString() {
+		return loading ? "Loading missing messages..." : "Some messages are missing - double-click to load them";
+	}
+}
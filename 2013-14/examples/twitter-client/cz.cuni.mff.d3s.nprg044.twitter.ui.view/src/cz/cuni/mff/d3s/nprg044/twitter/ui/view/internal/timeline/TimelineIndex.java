@@ -0,0 +1,177 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the words, @mentions and #hashtags of the statuses of one timeline.
+ *
+ * Every status gets an ordinal when it is added, every term has a posting list
+ * of the ordinals of the statuses containing it. Ordinals are used instead of
+ * row indices because rows move whenever newer statuses are inserted. Statuses
+ * are never removed, rows of a timeline are only evicted, which does not change
+ * their text.
+ *
+ * A query marks the statuses of every term in a bit set and intersects the
+ * sets, so it takes time proportional to the length of the posting lists.
+ */
+class TimelineIndex {
+
+	private static final long[] NONE = {};
+
+	// ids of the statuses by their ordinals
+	private long[] ids = new long[256];
+	private int count;
+
+	// terms in the natural order, so that all terms with a prefix can be found
+	private TreeMap<String, Postings> terms = new TreeMap<String, Postings>();
+
+	/**
+	 * Adds the status stored in the row of the table. Mentions and hashtags are
+	 * taken from its entities, links are not split to words.
+	 */
+	public void add(StatusTable table, int row) {
+		if (count == ids.length) {
+			ids = Arrays.copyOf(ids, count * 2);
+		}
+		int ordinal = count++;
+		ids[ordinal] = table.getId(row);
+
+		for (String term : getTerms(table, row)) {
+			Postings postings = terms.get(term);
+			if (postings == null) {
+				postings = new Postings();
+				terms.put(term, postings);
+			}
+			postings.add(ordinal);
+		}
+	}
+
+	/**
+	 * Returns ids of the statuses containing all terms of the query, in the
+	 * ascending order. The last term is matched as a prefix, it may not have
+	 * been typed completely yet.
+	 *
+	 * @return the ids or null if the query has no terms
+	 */
+	public long[] query(String query) {
+		List<String> queryTerms = tokenize(query);
+		if (queryTerms.isEmpty()) return null;
+
+		BitSet result = null;
+		for (int i = 0; i < queryTerms.size(); i++) {
+			String term = queryTerms.get(i);
+			BitSet matching = new BitSet(count);
+			if (i < queryTerms.size() - 1) {
+				Postings postings = terms.get(term);
+				if (postings != null) {
+					postings.mark(matching);
+				}
+			} else {
+				for (Postings postings : getPrefixPostings(term).values()) {
+					postings.mark(matching);
+				}
+			}
+
+			if (result == null) {
+				result = matching;
+			} else {
+				result.and(matching);
+			}
+			if (result.isEmpty()) return NONE;
+		}
+
+		long[] matched = new long[result.cardinality()];
+		int size = 0;
+		for (int ordinal = result.nextSetBit(0); ordinal >= 0; ordinal = result.nextSetBit(ordinal + 1)) {
+			matched[size++] = ids[ordinal];
+		}
+		// older statuses get greater ordinals, but newer ones are added when the timeline is refreshed
+		Arrays.sort(matched);
+		return matched;
+	}
+
+	private static List<String> getTerms(StatusTable table, int row) {
+		String text = table.getText(row);
+		int entityCount = table.getEntityCount(row);
+		if (entityCount == 0) {
+			return tokenize(text);
+		}
+
+		// the entities are replaced by spaces, the rest of the text is split to words
+		List<String> result = new ArrayList<String>();
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < entityCount; i++) {
+			int start = table.getEntityStart(row, i);
+			int end = table.getEntityEnd(row, i);
+			int kind = table.getEntityKind(row, i);
+			if (kind != StatusEntities.URL && end - start > 1) {
+				// the same terms as tokenize() makes of the query (the sign may be a full-width one)
+				char sign = kind == StatusEntities.MENTION ? '@' : '#';
+				result.add(sign + text.substring(start + 1, end).toLowerCase());
+			}
+			Arrays.fill(chars, start, end, ' ');
+		}
+		result.addAll(tokenize(new String(chars)));
+		return result;
+	}
+
+	private Map<String, Postings> getPrefixPostings(String prefix) {
+		return terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+	}
+
+	/*
+	 * Terms are lower-case runs of letters, digits and underscores. A run
+	 * directly after '@' or '#' keeps the character, so mentions and hashtags
+	 * do not match plain words.
+	 */
+	static List<String> tokenize(String text) {
+		List<String> result = new ArrayList<String>();
+		if (text == null) return result;
+
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c) || c == '_') {
+				term.append(Character.toLowerCase(c));
+			} else if ((c == '@' || c == '#') && term.length() == 0) {
+				term.append(c);
+			} else {
+				if (term.length() > 1 || (term.length() == 1 && term.charAt(0) != '@' && term.charAt(0) != '#')) {
+					result.add(term.toString());
+				}
+				term.setLength(0);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Ordinals of the statuses containing one term, in the ascending order.
+	 */
+	private static class Postings {
+
+		private int[] ordinals = new int[2];
+		private int size;
+
+		void add(int ordinal) {
+			// the term occurs more than once in the status
+			if (size > 0 && ordinals[size - 1] == ordinal) return;
+
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+			}
+			ordinals[size++] = ordinal;
+		}
+
+		void mark(BitSet bits) {
+			for (int i = 0; i < size; i++) {
+				bits.set(ordinals[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import twitter4j.Paging;
+import twitter4j.Status;
+
+/**
+ * Rows of a single user timeline, newest first.
+ *
+ * The ids of all rows fetched so far are always kept, but the statuses
+ * themselves may be dropped (evicted) and fetched again later using the known
+ * ids as max_id cursors. That way only a bounded window of statuses has to be
+ * held in memory even for very long timelines. Statuses are not kept as
+ * twitter4j objects, only their data are copied to the columns of a
+ * {@link StatusTable} and the table shows {@link StatusRow} flyweights.
+ *
+ * Texts of the statuses are indexed as they arrive, so the timeline can be
+ * filtered without fetching anything (see {@link #filter}).
+ *
+ * Newer statuses are fetched using the newest known id as since_id. When more
+ * than one page of them arrived, a {@link TimelineGap} row stands for the rest
+ * until it is filled on demand.
+ *
+ * Instances are not thread-safe, they are accessed from the UI thread only.
+ */
+public class UserTimeline implements RowSource {
+
+	// maximal number of statuses Twitter returns in one page
+	public static final int PAGE_SIZE = 200;
+
+	private String screenName;
+	// 0 until the first status is known
+	private long userId;
+
+	// ids are sorted in the descending order, gap rows use the max_id of the gap
+	private StatusTable table = new StatusTable(PAGE_SIZE);
+	// gap rows by their ids
+	private Map<Long, TimelineGap> gaps = new HashMap<Long, TimelineGap>();
+
+	private TimelineIndex index = new TimelineIndex();
+
+	// no more (older) statuses to fetch
+	private boolean complete;
+
+	// when the newest statuses were fetched last time, 0 if they never were
+	private long refreshTime;
+
+	public UserTimeline(String screenName) {
+		this.screenName = screenName;
+	}
+
+	public String getScreenName() {
+		return screenName;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	public int getSize() {
+		return table.getSize();
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public long getRefreshTime() {
+		return refreshTime;
+	}
+
+	public void setRefreshTime(long refreshTime) {
+		this.refreshTime = refreshTime;
+	}
+
+	public long getId(int index) {
+		return table.getId(index);
+	}
+
+	/**
+	 * Returns ids of all rows (gap rows have the max_id of the gap).
+	 */
+	public long[] getIds() {
+		long[] ids = new long[getSize()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = table.getId(i);
+		}
+		return ids;
+	}
+
+	// returns null if the row is not a status or the status was evicted
+	public StatusRow getRow(int index) {
+		return isMaterialized(index) ? new StatusRow(this, table.getId(index), index) : null;
+	}
+
+	// returns null if the row is not a gap
+	public TimelineGap getGap(int index) {
+		return table.getState(index) == StatusTable.GAP ? gaps.get(table.getId(index)) : null;
+	}
+
+	public boolean isUnavailable(int index) {
+		return table.getState(index) == StatusTable.UNAVAILABLE;
+	}
+
+	public boolean isMaterialized(int index) {
+		return table.getState(index) == StatusTable.STATUS;
+	}
+
+	// evicted statuses, the only rows which have to be fetched again
+	public boolean isEvicted(int index) {
+		return table.getState(index) == StatusTable.EVICTED;
+	}
+
+	/**
+	 * Returns paging parameters for the page following the last known row.
+	 */
+	public Paging getNextPage() {
+		Paging paging = new Paging().count(PAGE_SIZE);
+		if (getSize() > 0) {
+			paging.setMaxId(getId(getSize() - 1) - 1);
+		}
+		return paging;
+	}
+
+	/**
+	 * Appends a page of statuses older than the last known row.
+	 * An empty page marks the end of the timeline.
+	 */
+	public void append(List<Status> page) {
+		if (page.isEmpty()) {
+			complete = true;
+			return;
+		}
+
+		for (Status status : page) {
+			int size = getSize();
+			// ignore anything that would break the ordering
+			if (size > 0 && status.getId() >= getId(size - 1)) continue;
+
+			table.insert(size, 1);
+			setStatus(size, status);
+			rememberUser(status);
+		}
+	}
+
+	/**
+	 * Appends rows of statuses stored elsewhere (on the disk), they start as evicted.
+	 */
+	public void appendStored(long userId, long[] storedIds) {
+		if (this.userId == 0) {
+			this.userId = userId;
+		}
+
+		for (long id : storedIds) {
+			int size = getSize();
+			if (size > 0 && id >= getId(size - 1)) continue;
+
+			table.insert(size, 1);
+			table.setState(size, id, StatusTable.EVICTED);
+		}
+	}
+
+	/**
+	 * Returns the number of rows at the top which are not interrupted by a gap.
+	 */
+	public int getContiguousEnd() {
+		for (int i = 0; i < getSize(); i++) {
+			if (table.getState(i) == StatusTable.GAP) {
+				return i;
+			}
+		}
+		return getSize();
+	}
+
+	/**
+	 * Returns paging parameters for statuses newer than the first row. The
+	 * first row is requested too, the page shows whether it reaches it.
+	 */
+	public Paging getNewerPage() {
+		if (getSize() == 0) {
+			return getNextPage();
+		}
+		return new Paging().count(PAGE_SIZE).sinceId(getId(0) - 1);
+	}
+
+	/**
+	 * Inserts a page of statuses newer than the first row at the beginning.
+	 * If the page does not reach the first row, there may be more of them
+	 * (Twitter removes deleted statuses after it limits the page, so a short
+	 * page may be incomplete too), a gap row is put after the page then.
+	 *
+	 * @return the number of inserted rows
+	 */
+	public int prepend(List<Status> page) {
+		if (getSize() == 0) {
+			append(page);
+			return getSize();
+		}
+		return insert(0, page, getId(0), true);
+	}
+
+	/**
+	 * Inserts streamed statuses newer than the first row at the beginning. The
+	 * stream delivers all of them, so no gap row is put after them.
+	 *
+	 * @return the number of inserted rows
+	 */
+	public int prependStreamed(List<Status> statuses) {
+		if (getSize() == 0) {
+			append(statuses);
+			return getSize();
+		}
+		return insert(0, statuses, getId(0), false);
+	}
+
+	/**
+	 * Returns paging parameters for the newest statuses missing in the given gap,
+	 * together with the row below the gap.
+	 */
+	public Paging getGapPage(TimelineGap gap) {
+		return new Paging().count(PAGE_SIZE).sinceId(gap.getSinceId() - 1).maxId(gap.getMaxId());
+	}
+
+	/**
+	 * Replaces the gap by the fetched statuses. If the page does not reach the
+	 * row below the gap, a smaller gap stays after it.
+	 *
+	 * @return the change of the number of rows or 0 if the gap is no longer there
+	 */
+	public int fillGap(TimelineGap gap, List<Status> page) {
+		int index = indexOf(gap);
+		if (index < 0) return 0;
+
+		gaps.remove(gap.getMaxId());
+		table.remove(index);
+		return insert(index, page, gap.getSinceId(), true) - 1;
+	}
+
+	public int indexOf(TimelineGap gap) {
+		int index = indexOf(gap.getMaxId(), 0, getSize());
+		return index >= 0 && getGap(index) == gap ? index : -1;
+	}
+
+	@Override
+	public int indexOf(long id) {
+		return indexOf(id, 0, getSize());
+	}
+
+	/**
+	 * Returns the end (exclusive) of the range of evicted statuses to fetch again
+	 * together with the given row. The range never crosses a row which is not evicted.
+	 */
+	public int getReloadEnd(int index) {
+		int end = index + 1;
+		while (end < getSize() && end - index < PAGE_SIZE && isEvicted(end)) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Returns paging parameters for fetching again the given range of rows.
+	 */
+	public Paging getReloadPage(int start, int end) {
+		return new Paging().count(end - start).maxId(getId(start));
+	}
+
+	/**
+	 * Puts fetched statuses back to the given range of evicted rows.
+	 * Rows of the range which were not returned become unavailable.
+	 */
+	public void fill(int start, int end, List<Status> page) {
+		for (Status status : page) {
+			int row = indexOf(status.getId(), start, end);
+			if (row >= 0 && isEvicted(row)) {
+				setStatus(row, status);
+			}
+		}
+
+		for (int row = start; row < end; row++) {
+			if (isEvicted(row)) {
+				table.setState(row, getId(row), StatusTable.UNAVAILABLE);
+			}
+		}
+	}
+
+	/**
+	 * Puts a status found elsewhere (in a cache) back to its evicted row.
+	 */
+	public void restore(int index, Status status) {
+		if (isEvicted(index) && status.getId() == getId(index)) {
+			setStatus(index, status);
+		}
+	}
+
+	/**
+	 * Drops the status at the given row, it can be fetched again using its id.
+	 */
+	public void evict(int index) {
+		table.evict(index);
+	}
+
+	/**
+	 * Returns ids of the statuses containing all words, @mentions and #hashtags of
+	 * the query, newest first. Only statuses whose text has been loaded in this
+	 * session are found, the last word of the query matches as a prefix.
+	 *
+	 * @return the ids or null if the query has no words
+	 */
+	public long[] filter(String query) {
+		long[] ids = index.query(query);
+		if (ids == null) return null;
+
+		long[] result = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			result[i] = ids[ids.length - 1 - i];
+		}
+		return result;
+	}
+
+	@Override
+	public StatusTable getTable() {
+		return table;
+	}
+
+	private void setStatus(int row, Status status) {
+		table.setStatus(row, status);
+		if (!table.isIndexed(row)) {
+			index.add(table, row);
+			table.setIndexed(row);
+		}
+	}
+
+	// inserts statuses newer than sinceId at the given position, followed by a gap
+	// unless the page reaches the status sinceId (requested with the page) or is complete
+	private int insert(int index, List<Status> page, long sinceId, boolean requested) {
+		// statuses above the position must stay newer
+		long maxId = index > 0 ? getId(index - 1) : Long.MAX_VALUE;
+
+		int count = 0;
+		long lastId = 0;
+		boolean reached = false;
+		Status[] statuses = new Status[page.size()];
+		for (Status status : page) {
+			long id = status.getId();
+			reached |= id == sinceId;
+			// ignore anything that would break the ordering
+			if (id >= maxId || id <= sinceId || (count > 0 && id >= lastId)) continue;
+
+			statuses[count++] = status;
+			lastId = id;
+		}
+
+		TimelineGap gap = null;
+		if (requested && !reached && count > 0 && lastId - 1 > sinceId) {
+			gap = new TimelineGap(sinceId, lastId - 1);
+		}
+
+		int inserted = count + (gap != null ? 1 : 0);
+		if (inserted == 0) return 0;
+
+		table.insert(index, inserted);
+		for (int i = 0; i < count; i++) {
+			setStatus(index + i, statuses[i]);
+			rememberUser(statuses[i]);
+		}
+		if (gap != null) {
+			table.setState(index + count, gap.getMaxId(), StatusTable.GAP);
+			gaps.put(gap.getMaxId(), gap);
+		}
+		return inserted;
+	}
+
+	private void rememberUser(Status status) {
+		if (userId == 0 && status.getUser() != null) {
+			userId = status.getUser().getId();
+		}
+	}
+
+	// ids are sorted in the descending order
+	private int indexOf(long id, int from, int to) {
+		int low = from;
+		int high = to - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midId = getId(mid);
+			if (midId > id) {
+				low = mid + 1;
+			} else if (midId < id) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+}
@@ -4,16 +4,20 @@ import org.eclipse.ui.views.properties.IPropertyDescriptor;
 import org.eclipse.ui.views.properties.IPropertySource;
 import org.eclipse.ui.views.properties.PropertyDescriptor;
 
-import twitter4j.Status;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusEntities;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusRow;
 
 public class TwitterStatusPropertySource implements IPropertySource {
 	private static final String MSG_ID = "twitter.prop.msg";
 	private static final String RETWEET_COUNT_ID = "twitter.prop.retweet.count";
+	private static final String MENTIONS_ID = "twitter.prop.mentions";
+	private static final String HASHTAGS_ID = "twitter.prop.hashtags";
+	private static final String LINKS_ID = "twitter.prop.links";
 	
-	private Status status;	
+	private StatusRow status;	
 	private IPropertyDescriptor[] propertyDescriptors;
 
-	public TwitterStatusPropertySource(Status status) {
+	public TwitterStatusPropertySource(StatusRow status) {
 		this.status = status;
 	}
 
@@ -28,7 +32,10 @@ public class TwitterStatusPropertySource implements IPropertySource {
 			// define supported properties
 			IPropertyDescriptor descMessage = new PropertyDescriptor(MSG_ID, "Message");
 			IPropertyDescriptor retweetCount= new PropertyDescriptor(RETWEET_COUNT_ID, "Retweet count");
-			propertyDescriptors = new IPropertyDescriptor[] { descMessage, retweetCount };
+			IPropertyDescriptor mentions = new PropertyDescriptor(MENTIONS_ID, "Mentions");
+			IPropertyDescriptor hashtags = new PropertyDescriptor(HASHTAGS_ID, "Hashtags");
+			IPropertyDescriptor links = new PropertyDescriptor(LINKS_ID, "Links");
+			propertyDescriptors = new IPropertyDescriptor[] { descMessage, retweetCount, mentions, hashtags, links };
 		}
 		
 		return propertyDescriptors;
@@ -40,11 +47,36 @@ public class TwitterStatusPropertySource implements IPropertySource {
 			return status.getText();
 		} else if (id.equals(RETWEET_COUNT_ID)) {
 			return status.getRetweetCount();
+		} else if (id.equals(MENTIONS_ID)) {
+			return getEntities(StatusEntities.MENTION);
+		} else if (id.equals(HASHTAGS_ID)) {
+			return getEntities(StatusEntities.HASHTAG);
+		} else if (id.equals(LINKS_ID)) {
+			return getEntities(StatusEntities.URL);
 		}
 		
 		return null;
 	}
 
+	// texts of the entities of the given kind separated by spaces
+	private String getEntities(int kind) {
+		StatusEntities entities = status.getEntities();
+		if (entities == null) {
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < entities.getCount(); i++) {
+			if (entities.getKind(i) == kind) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(entities.getText(i));
+			}
+		}
+		return sb.toString();
+	}
+
 	@Override
 	public boolean isPropertySet(Object id) {
 		return false;
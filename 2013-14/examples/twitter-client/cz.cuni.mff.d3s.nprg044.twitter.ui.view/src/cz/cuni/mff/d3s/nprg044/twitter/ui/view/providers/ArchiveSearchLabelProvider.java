@@ -0,0 +1,38 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
+
+import java.text.DateFormat;
+
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.swt.graphics.Image;
+
+import cz.cuni.mff.d3s.nprg044.twitter.archive.ArchivedStatus;
+
+public class ArchiveSearchLabelProvider extends LabelProvider implements ITableLabelProvider {
+
+	private DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+
+	@Override
+	public Image getColumnImage(Object element, int columnIndex) {
+		return null;
+	}
+
+	@Override
+	public String getColumnText(Object element, int columnIndex) {
+		if (element instanceof ArchivedStatus) {
+			ArchivedStatus status = (ArchivedStatus) element;
+
+			switch (columnIndex) {
+				case 0:
+					return dateFormat.format(status.getCreatedAt());
+				case 1:
+					return "@" + status.getScreenName();
+				case 2:
+					return status.getText();
+				default:
+					return null;
+			}
+		}
+		return columnIndex == 2 ? getText(element) : null;
+	}
+}
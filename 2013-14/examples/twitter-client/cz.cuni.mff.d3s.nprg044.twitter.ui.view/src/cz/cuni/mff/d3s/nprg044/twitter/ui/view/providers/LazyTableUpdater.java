@@ -0,0 +1,87 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
+
+import java.util.BitSet;
+
+import org.eclipse.jface.viewers.AbstractTableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableItem;
+
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowDelta;
+
+/**
+ * Applies a {@link RowDelta} to the virtual table of a lazy viewer.
+ *
+ * The lazy viewer cannot insert an item without its element (viewer.insert()
+ * would create and label it right away) and it cannot remove items it does not
+ * know. So the items are inserted and removed in the table directly: inserted
+ * items are virtual, the table asks the content provider for them only when
+ * they become visible, and removed items are disassociated from their elements
+ * by the viewer first. Items of the other rows are kept, together with the
+ * selection.
+ */
+final class LazyTableUpdater {
+
+	private LazyTableUpdater() {
+	}
+
+	/**
+	 * Applies the delta and moves the shown rows in the set to their new positions.
+	 * The rows the user is looking at stay in place unless the table is scrolled
+	 * to the very top, where the inserted rows should be seen.
+	 */
+	static void apply(AbstractTableViewer viewer, RowDelta delta, BitSet shown) {
+		if (delta.isEmpty()) return;
+
+		Table table = (Table) viewer.getControl();
+		int topIndex = table.getTopIndex();
+
+		table.setRedraw(false);
+		try {
+			// runs of adjacent rows are removed at once
+			int i = delta.getRemovedCount() - 1;
+			while (i >= 0) {
+				int end = delta.getRemoved(i);
+				int start = end;
+				while (i > 0 && delta.getRemoved(i - 1) == start - 1) {
+					start = delta.getRemoved(--i);
+				}
+				i--;
+
+				for (int row = shown.nextSetBit(start); row >= 0 && row <= end; row = shown.nextSetBit(row + 1)) {
+					viewer.clear(row);
+				}
+				table.remove(start, end);
+			}
+
+			for (int j = 0; j < delta.getInsertedCount(); j++) {
+				new TableItem(table, SWT.NONE, delta.getInserted(j));
+			}
+
+			if (topIndex > 0) {
+				table.setTopIndex(getNewTopIndex(delta, topIndex));
+			}
+		}
+		finally {
+			table.setRedraw(true);
+		}
+
+		BitSet oldShown = (BitSet) shown.clone();
+		shown.clear();
+		for (int row = oldShown.nextSetBit(0); row >= 0; row = oldShown.nextSetBit(row + 1)) {
+			int position = delta.getNewPosition(row);
+			if (position >= 0) {
+				shown.set(position);
+			}
+		}
+	}
+
+	// the first row at or below the old top which has not been removed
+	private static int getNewTopIndex(RowDelta delta, int topIndex) {
+		int row = topIndex;
+		while (delta.getNewPosition(row) < 0) {
+			row++;
+		}
+		return delta.getNewPosition(row);
+	}
+}
@@ -0,0 +1,499 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.viewers.AbstractTableViewer;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.ProgressBar;
+
+import cz.cuni.mff.d3s.nprg044.twitter.auth.RateLimitBudget;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.MergedTimeline;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.PendingRow;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowDelta;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.UserTimeline;
+
+import twitter4j.Paging;
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+
+/**
+ * Lazy content provider for the timeline table showing statuses of several
+ * users merged together (see {@link MergedTimeline}). The input is an array of
+ * screen names.
+ *
+ * Timelines of all users are requested at once, so the scheduler of the Twitter
+ * service fetches them in parallel, and the pages are merged when all of them
+ * have arrived. A refresh requests newer statuses only of as many users as the
+ * rate limit allows, the least recently refreshed ones first. Scrolling to the
+ * end fetches older statuses of the user whose statuses end first.
+ *
+ * Merged timelines are small compared to a single long timeline, all their
+ * statuses are kept materialized. Merged pages are applied to the table as a
+ * {@link RowDelta}, so the items of the other rows stay as they are.
+ */
+public class MergedTimelineContentProvider implements ILazyContentProvider {
+
+	private static final String NO_MESSAGE = "There is no user to show...";
+	private static final String NO_MATCH_MESSAGE = "No loaded message matches the filter";
+
+	// a refresh fetches at most this number of pages of newer statuses of one user
+	private static final int MAX_REFRESH_PAGES = 4;
+
+	// timelines refreshed less than this ago are shown again without a request
+	private static final long RECENT_QUERY_AGE = 60 * 1000L;
+
+	// older pages are not prefetched when less than this part of the rate limit is left
+	private static final double LOW_BUDGET = 0.2;
+
+	private AbstractTableViewer viewer;
+	private ProgressBar progressBar;
+
+	private MergedTimeline timeline;
+	private long refreshTime;
+	// the newest status when the timeline was refreshed automatically last time
+	private long autoRefreshTopId;
+
+	// single row shown instead of the timeline (no input)
+	private String message;
+	// error which stopped fetching of older statuses
+	private String tailMessage;
+
+	private String filter;
+	// ids of the rows matching the filter (newest first), null if the timeline is not filtered
+	private long[] filtered;
+
+	// rows passed to the table since they were last cleared
+	private BitSet shown = new BitSet();
+
+	private boolean appendScheduled;
+	private boolean refreshScheduled;
+
+	// incremented with every input, jobs started for older inputs are ignored
+	private int generation;
+
+	public MergedTimelineContentProvider(ProgressBar progressBar) {
+		this.progressBar = progressBar;
+	}
+
+	@Override
+	public void dispose() {
+		cancelJobs();
+	}
+
+	@Override
+	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		this.viewer = (AbstractTableViewer) viewer;
+
+		if (oldInput == newInput || newInput == null) return;
+
+		// the viewer refreshes all rows after the input changes
+		shown.clear();
+		showTimeline(newInput instanceof String[] ? (String[]) newInput : new String[0], false);
+	}
+
+	/**
+	 * Fetches newer statuses of the shown users.
+	 */
+	public void refreshTimeline() {
+		if (timeline != null) {
+			scheduleRefresh();
+		}
+	}
+
+	/**
+	 * Fetches newer statuses of the shown users unless it happened recently.
+	 *
+	 * @return true if newer statuses have been shown since the last call
+	 */
+	public boolean autoRefresh() {
+		if (timeline == null) return false;
+
+		long topId = timeline.getSize() > 0 ? timeline.getId(0) : 0;
+		boolean changed = topId != autoRefreshTopId;
+		autoRefreshTopId = topId;
+
+		if (System.currentTimeMillis() - refreshTime >= RECENT_QUERY_AGE) {
+			scheduleRefresh();
+		}
+		return changed;
+	}
+
+	/**
+	 * Shows only the loaded statuses containing all words of the filter, all
+	 * statuses if it is empty.
+	 */
+	public void setFilter(String filter) {
+		this.filter = filter;
+		applyFilter();
+	}
+
+	// the table wants to show the row with the given index
+	@Override
+	public void updateElement(int index) {
+		shown.set(index);
+
+		if (message != null) {
+			viewer.replace(message, index);
+			return;
+		}
+
+		if (filtered != null) {
+			if (filtered.length == 0) {
+				viewer.replace(NO_MATCH_MESSAGE, index);
+			} else {
+				viewer.replace(timeline.getRowById(filtered[index]), index);
+			}
+			return;
+		}
+
+		if (index >= timeline.getSize()) {
+			// the last row stands for statuses which have not been fetched yet
+			if (tailMessage != null) {
+				viewer.replace(tailMessage, index);
+			} else {
+				viewer.replace(new PendingRow("Loading older messages..."), index);
+				scheduleAppend();
+			}
+			return;
+		}
+
+		viewer.replace(timeline.getRow(index), index);
+
+		// prefetch more when the user gets close to the end
+		if (index >= timeline.getSize() - UserTimeline.PAGE_SIZE && !isBudgetLow()) {
+			scheduleAppend();
+		}
+	}
+
+	private void showTimeline(String[] screenNames, boolean force) {
+		if (timeline != null && timeline.hasMembers(screenNames)) {
+			if (force || System.currentTimeMillis() - refreshTime >= RECENT_QUERY_AGE) {
+				scheduleRefresh();
+			}
+			updateItemCount();
+			showProgress();
+			return;
+		}
+
+		cancelJobs();
+		tailMessage = null;
+		if (screenNames.length == 0) {
+			timeline = null;
+			message = NO_MESSAGE;
+		} else {
+			timeline = new MergedTimeline(screenNames);
+			message = null;
+			scheduleRefresh();
+		}
+
+		filtered = filter != null && timeline != null ? timeline.filter(filter) : null;
+		updateItemCount();
+		showProgress();
+	}
+
+	// the budget is saved for the rows the user actually scrolls to
+	private boolean isBudgetLow() {
+		RateLimitBudget budget = TwitterClient.getBudget(TwitterRequest.USER_TIMELINE);
+		return budget != null && budget.isLow(LOW_BUDGET);
+	}
+
+	private void scheduleRefresh() {
+		if (refreshScheduled) return;
+
+		// users which do not fit in the rest of the rate limit are refreshed next time
+		RateLimitBudget budget = TwitterClient.getBudget(TwitterRequest.USER_TIMELINE);
+		int allowance = budget != null ? budget.getRemaining() - budget.getQueued() : Integer.MAX_VALUE;
+
+		int[] order = timeline.getRefreshOrder();
+		List<Integer> members = new ArrayList<Integer>();
+		for (int member : order) {
+			// users never fetched are requested anyway, the scheduler delays them if needed
+			if (members.size() >= allowance && timeline.isLoaded(member)) break;
+			members.add(member);
+		}
+		if (members.isEmpty()) return;
+
+		refreshScheduled = true;
+		refreshTime = System.currentTimeMillis();
+		new FetchJob(members, false).schedule();
+		showProgress();
+	}
+
+	private void scheduleAppend() {
+		if (appendScheduled || tailMessage != null) return;
+
+		int member = timeline.getLimitingMember();
+		if (member < 0) return;
+
+		appendScheduled = true;
+		List<Integer> members = new ArrayList<Integer>();
+		members.add(member);
+		new FetchJob(members, true).schedule();
+	}
+
+	private void cancelJobs() {
+		generation++;
+		appendScheduled = false;
+		refreshScheduled = false;
+		Job.getJobManager().cancel(this);
+	}
+
+	// called in the UI thread when pages of the users have been fetched
+	private void pagesFetched(List<Integer> members, List<List<Status>> pages, List<String> errors, boolean[] truncated,
+			boolean older) {
+		if (older) {
+			appendScheduled = false;
+		} else {
+			refreshScheduled = false;
+		}
+
+		long[] oldIds = timeline.getIds();
+		for (int i = 0; i < members.size(); i++) {
+			if (pages.get(i) != null) {
+				timeline.add(members.get(i), pages.get(i), older, truncated[i]);
+			} else {
+				timeline.setFailed(members.get(i), errors.get(i));
+				if (older) {
+					tailMessage = errors.get(i);
+				}
+			}
+		}
+		timeline.merge();
+
+		if (filtered != null) {
+			applyFilter();
+		} else {
+			applyDelta(RowDelta.compute(oldIds, timeline.getIds()));
+		}
+		showProgress();
+	}
+
+	/*
+	 * Filters the timeline again. Rows which no longer match are removed from the
+	 * table and the newly matching ones inserted, the table keeps the items of the others.
+	 */
+	private void applyFilter() {
+		if (viewer == null || message != null) return;
+
+		long[] oldFiltered = filtered;
+		filtered = filter != null ? timeline.filter(filter) : null;
+		if (oldFiltered == null && filtered == null) return;
+
+		long[] oldIds = oldFiltered != null ? oldFiltered : timeline.getIds();
+		applyDelta(RowDelta.compute(oldIds, filtered != null ? filtered : timeline.getIds()));
+	}
+
+	// the table shows the given rows followed by the message or tail row, if any
+	private void applyDelta(RowDelta delta) {
+		LazyTableUpdater.apply(viewer, delta, shown);
+		updateItemCount();
+		// the row after the statuses may show something else now ("no match", the tail)
+		clearShownRows(delta.getNewSize());
+	}
+
+	private void updateItemCount() {
+		if (message != null) {
+			viewer.setItemCount(1);
+		} else if (filtered != null) {
+			// one row tells that nothing matches
+			viewer.setItemCount(Math.max(filtered.length, 1));
+		} else {
+			// one extra row at the end stands for the statuses which have not been fetched yet
+			boolean hasTail = !timeline.isComplete() || tailMessage != null;
+			viewer.setItemCount(timeline.getSize() + (hasTail ? 1 : 0));
+		}
+	}
+
+	private void clearShownRows(int from) {
+		for (int i = shown.nextSetBit(from); i >= 0; i = shown.nextSetBit(i + 1)) {
+			viewer.clear(i);
+		}
+		shown.clear(from, Math.max(shown.length(), from));
+	}
+
+	private void showProgress() {
+		if (progressBar == null || progressBar.isDisposed()) return;
+
+		if (message != null) {
+			progressBar.setMaximum(1);
+			progressBar.setSelection(1);
+		} else {
+			// users whose statuses have arrived out of all users
+			int loaded = 0;
+			for (int i = 0; i < timeline.getMemberCount(); i++) {
+				if (timeline.isLoaded(i)) {
+					loaded++;
+				}
+			}
+			progressBar.setMaximum(timeline.getMemberCount());
+			progressBar.setSelection(loaded);
+		}
+	}
+
+	/**
+	 * Fetches one page of statuses of each of the given users outside the UI thread.
+	 *
+	 * The timeline is used in the UI thread only, the requests are prepared
+	 * when the job is created.
+	 */
+	private class FetchJob extends Job {
+
+		private List<Integer> members;
+		private boolean older;
+
+		private String[] screenNames;
+		private Paging[] pagings;
+		private int[] priorities;
+		// the refresh of the user stopped after MAX_REFRESH_PAGES, newer statuses are missing
+		private boolean[] truncated;
+
+		private int jobGeneration = generation;
+		private Display display = viewer.getControl().getDisplay();
+
+		public FetchJob(List<Integer> members, boolean older) {
+			super(members.size() == 1 ? "Getting timeline of @" + timeline.getScreenName(members.get(0)) + "..."
+					: "Getting timelines of " + members.size() + " users...");
+
+			this.members = members;
+			this.older = older;
+
+			screenNames = new String[members.size()];
+			pagings = new Paging[members.size()];
+			priorities = new int[members.size()];
+			truncated = new boolean[members.size()];
+			for (int i = 0; i < members.size(); i++) {
+				int member = members.get(i);
+				screenNames[i] = timeline.getScreenName(member);
+				pagings[i] = older ? timeline.getNextPage(member) : timeline.getNewerPage(member);
+				// rows the user is waiting for go before prefetching
+				priorities[i] = timeline.isLoaded(member) ? TwitterRequest.PRIORITY_NORMAL : TwitterRequest.PRIORITY_INTERACTIVE;
+			}
+		}
+
+		@Override
+		public boolean belongsTo(Object family) {
+			return family == MergedTimelineContentProvider.this;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			monitor.beginTask(getName(), members.size());
+
+			try {
+				// all requests are queued first, the scheduler executes them in parallel
+				List<Future<List<Status>>> futures = new ArrayList<Future<List<Status>>>(members.size());
+				for (int i = 0; i < members.size(); i++) {
+					try {
+						futures.add(submit(screenNames[i], pagings[i], priorities[i]));
+					}
+					catch (TwitterException e) {
+						// the service is not available, the error is reported for every user below
+						futures.add(null);
+					}
+				}
+
+				final List<List<Status>> pages = new ArrayList<List<Status>>(members.size());
+				final List<String> errors = new ArrayList<String>(members.size());
+				for (int i = 0; i < members.size(); i++) {
+					try {
+						if (futures.get(i) == null) {
+							throw new TwitterException("The Twitter service is not available");
+						}
+						List<Status> page = TwitterClient.get(futures.get(i), monitor);
+						// only a refresh of a loaded user is limited by since_id
+						if (!older && pagings[i].getSinceId() > 0) {
+							page = fetchNewer(i, page, monitor);
+						}
+						pages.add(page);
+						errors.add(null);
+
+						TwitterClient.cacheStatuses(page);
+						TwitterViewPlugin.getDefault().getLocalStore().putStatuses(page);
+						TwitterClient.archiveStatuses(page);
+					}
+					catch (TwitterException e) {
+						// the other users are shown anyway
+						pages.add(null);
+						errors.add("@" + screenNames[i] + ": " + e.getMessage());
+					}
+					monitor.worked(1);
+				}
+
+				asyncExecIfCurrent(new Runnable() {
+					@Override
+					public void run() {
+						pagesFetched(members, pages, errors, truncated, older);
+					}
+				});
+			}
+			catch (OperationCanceledException e) {
+				return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+			}
+			finally {
+				monitor.done();
+			}
+
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+
+		private Future<List<Status>> submit(final String screenName, final Paging paging, int priority) throws TwitterException {
+			return TwitterClient.submit(new TwitterRequest<List<Status>>(TwitterRequest.USER_TIMELINE, priority) {
+				@Override
+				public List<Status> execute(Twitter twitter) throws TwitterException {
+					return twitter.getUserTimeline(screenName, paging);
+				}
+			});
+		}
+
+		// a page of newer statuses may not reach the known one requested with it (even a short
+		// page, deleted statuses are removed after the page is limited), the rest is fetched too
+		private List<Status> fetchNewer(int i, List<Status> first, IProgressMonitor monitor) throws TwitterException {
+			long knownId = pagings[i].getSinceId() + 1;
+			List<Status> result = new ArrayList<Status>(first);
+			List<Status> page = first;
+			for (int pages = 1; pages < MAX_REFRESH_PAGES && !reaches(page, knownId); pages++) {
+				Paging paging = new Paging().count(UserTimeline.PAGE_SIZE);
+				paging.setSinceId(pagings[i].getSinceId());
+				paging.setMaxId(page.get(page.size() - 1).getId() - 1);
+				page = TwitterClient.get(submit(screenNames[i], paging, priorities[i]), monitor);
+				result.addAll(page);
+			}
+			// the rest is fetched by the next refresh
+			truncated[i] = !reaches(page, knownId);
+			return result;
+		}
+
+		// an empty page reaches anything, there is nothing more to fetch
+		private boolean reaches(List<Status> page, long id) {
+			return page.isEmpty() || page.get(page.size() - 1).getId() <= id;
+		}
+
+		// execute in the UI thread, but only if the job still serves the current input
+		private void asyncExecIfCurrent(final Runnable runnable) {
+			if (display.isDisposed()) return;
+
+			display.asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					// it is necessary to check that the widget is not disposed
+					if (jobGeneration == generation && !viewer.getControl().isDisposed()) {
+						runnable.run();
+					}
+				}
+			});
+		}
+	}
+}
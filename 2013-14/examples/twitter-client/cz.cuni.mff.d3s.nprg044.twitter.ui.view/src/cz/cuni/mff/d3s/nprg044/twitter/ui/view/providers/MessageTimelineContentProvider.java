@@ -1,135 +1,618 @@
 package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.AbstractTableViewer;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.KeyListener;
 import org.eclipse.swt.events.KeyAdapter;
 import org.eclipse.swt.events.KeyEvent;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Text;
 
-import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterAuthUtil;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.RateLimitBudget;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live.TimelineModel;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live.TimelineModelListener;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.live.TimelineModelRegistry;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.UserNode;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.PendingRow;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowDelta;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.RowSorter;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusRow;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.TimelineGap;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.UserTimeline;
 
-import twitter4j.Status;
-import twitter4j.Twitter;
-import twitter4j.TwitterFactory;
-import twitter4j.User;
+/**
+ * Lazy content provider for the virtual timeline table.
+ *
+ * The table asks only for the rows which become visible. The timeline itself is
+ * a {@link TimelineModel} shared by all views showing the same user: the model
+ * fetches pages of statuses around the rows the views ask for, keeps only a
+ * bounded window of them materialized and pushes every change to all views.
+ * The provider keeps only the state of its table (the filter, the shown rows).
+ *
+ * Timelines of recently shown users are remembered by the models for a while,
+ * so showing the same user again fetches only the statuses newer than the
+ * newest known one (since_id). The top of every timeline is also checkpointed
+ * to the local store, a timeline not known in this session is shown from the
+ * disk first and then refreshed.
+ *
+ * In the streaming mode, new statuses of the shown user are pushed by a
+ * stream of the model and inserted at the top in batches.
+ *
+ * Typing in the search box shows the typed user shortly after the last keystroke,
+ * requests made for the previous user are cancelled right away (unless another
+ * view shows it). A timeline refreshed (or a query failed) recently is shown
+ * again without any request, only "Enter" always refreshes.
+ *
+ * The loaded statuses can be filtered by words, @mentions and #hashtags using the
+ * index of the timeline. The table then shows only the matching rows.
+ *
+ * The loaded statuses (or the matching ones) can be sorted by a column using the
+ * sort keys kept by the timeline (see {@link RowSorter}). New statuses are then
+ * merged into the sorted rows instead of sorting them again.
+ *
+ * Changes of the shown rows (new statuses, filled gaps, a changed filter) are
+ * applied to the table as a {@link RowDelta} computed from the ids of the rows,
+ * so only the inserted and removed items are touched and the table keeps the
+ * selection and the scroll position.
+ */
+public class MessageTimelineContentProvider implements ILazyContentProvider {
 
+	private static final String NO_MESSAGE = "There is no message to show...";
+	private static final String UNAVAILABLE_MESSAGE = "This message is no longer available";
+	private static final String NO_MATCH_MESSAGE = "No loaded message matches the filter";
 
-public class MessageTimelineContentProvider implements IStructuredContentProvider {
+	// milliseconds after the last keystroke when the typed user is shown
+	private static final int SEARCH_DELAY = 250;
 
-	private static final String[] EMPTY_CONTENT = new String[] {"There is no message to show..."}; 
+	// older pages are not prefetched when less than this part of the rate limit is left
+	private static final double LOW_BUDGET = 0.2;
 
-	private Viewer viewer;
+	private AbstractTableViewer viewer;
 	private ProgressBar progressBar;
 
-	
+	private String username;
+	private TimelineModel model;
+	private UserTimeline timeline;
+
+	// the text differs from the shown user, nothing is requested for the timeline
+	private boolean stale;
+
+	// single row shown instead of the timeline (no input, errors)
+	private String message;
+
+	private String filter;
+	// ids of the rows matching the filter (newest first), null if the timeline is not filtered
+	private long[] filtered;
+
+	// order of the rows, null if they are shown as in the timeline
+	private RowSorter sorter;
+	// ids of the sorted rows (all or the filtered ones), null if the rows are not sorted
+	private long[] sorted;
+	private int sortColumn = -1;
+	private boolean sortAscending;
+
+	// rows passed to the table since they were last cleared
+	private BitSet shown = new BitSet();
+
+	private boolean streaming;
+
+	// the newest status when the timeline was refreshed automatically last time
+	private long autoRefreshTopId;
+
+	private TimelineModelListener modelListener = new TimelineModelListener() {
+		@Override
+		public void rowsChanged(RowDelta delta) {
+			if (message != null) {
+				// the timeline is not empty anymore
+				updateItemCount();
+			} else if (filtered != null) {
+				// the new statuses may match, applyFilter() finds the affected positions
+				applyFilter();
+			} else if (sorted != null) {
+				mergeRows(getInsertedIds(delta, null));
+			} else {
+				applyDelta(delta);
+			}
+			showProgress();
+		}
+
+		@Override
+		public void rowsUpdated(int start, int end) {
+			if (message != null) return;
+
+			for (int i = start; i < end; i++) {
+				clearRow(i);
+			}
+			if (filtered == null && sorted != null) {
+				// statuses stored on the disk have not been sorted before
+				mergeRows(getIds(start, end));
+			} else {
+				// nor indexed
+				applyFilter();
+			}
+			showProgress();
+		}
+	};
+
 	private KeyListener keyListener = new KeyAdapter() {
-		private String username;
-		
 		public void keyReleased(KeyEvent e) {
 			// watch for "Enter" keys
 			if (e.keyCode == SWT.CR || e.keyCode == SWT.KEYPAD_CR) {
 				// but only for text input widgets (some other widgets can be there)
 				if (e.widget instanceof Text) {
-					String newUsername = ((Text) e.widget).getText();
-					if (!newUsername.equals(username)) {
-						username = newUsername;
-						// run in the UI thread
-						e.display.asyncExec(new Runnable() {
-							@Override
-							public void run() {
-								// it is necessary to check that the widget is not disposed
-								if (!viewer.getControl().isDisposed()) {
-									viewer.refresh();
-								}
+					// the user is shown right now
+					e.display.timerExec(-1, search);
+					// run in the UI thread
+					e.display.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							// it is necessary to check that the widget is not disposed
+							if (!viewer.getControl().isDisposed()) {
+								refreshTimeline();
 							}
-						});
-					}
+						}
+					});
 				}
 			}
 		};
 	};
-	
+
+	private ModifyListener modifyListener = new ModifyListener() {
+		@Override
+		public void modifyText(ModifyEvent e) {
+			if (viewer.getControl().isDisposed()) return;
+
+			// the requests for the shown user are not needed when another one is being typed
+			String text = getUsername(e.widget);
+			if (!stale && model != null && (text == null || !text.equalsIgnoreCase(username))) {
+				stale = true;
+				model.cancelRequests(modelListener);
+			}
+
+			// every keystroke postpones the search
+			e.display.timerExec(SEARCH_DELAY, search);
+		}
+	};
+
+	private Runnable search = new Runnable() {
+		@Override
+		public void run() {
+			// it is necessary to check that the widget is not disposed
+			if (!viewer.getControl().isDisposed() && viewer.getInput() instanceof Text) {
+				if (showTimeline(getUsername(viewer.getInput()), false)) {
+					// another timeline, the table asks for the visible rows again
+					clearShownRows(0);
+				}
+			}
+		}
+	};
+
 	public MessageTimelineContentProvider() {
 		super();
 	}
-	
+
 	public MessageTimelineContentProvider(ProgressBar progressBar) {
 		this.progressBar = progressBar;
 	}
-	
+
 	@Override
-	public void dispose() {	
+	public void dispose() {
+		if (model != null) {
+			// the model is kept for a while, the view may show the user again
+			getModels().release(model, modelListener);
+			model = null;
+			timeline = null;
+			sorter = null;
+			sorted = null;
+			message = NO_MESSAGE;
+		}
 	}
 
 	/**
 	 * Notification that a different control is now the input for this provider.
 	 */
 	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
-		this.viewer = viewer;
-		
+		this.viewer = (AbstractTableViewer) viewer;
+
 		if (oldInput == newInput) return;
-		
+
 		// remove listener for the old input of a control type
 		if (oldInput instanceof Control) {
 			Control c = (Control) oldInput;
 			if (!c.isDisposed()) {
 				((Control) oldInput).removeKeyListener(keyListener);
+				if (c instanceof Text) {
+					((Text) c).removeModifyListener(modifyListener);
+				}
+				c.getDisplay().timerExec(-1, search);
 			}
 		}
-		
+
 		// we must now listen for keys on a different control/widget
 		// register listener for the new input of a control type
 		if (newInput instanceof Control) {
 			Control c = (Control) newInput;
 			if (!c.isDisposed()) {
 				((Control) newInput).addKeyListener(keyListener);
+				if (c instanceof Text) {
+					((Text) c).addModifyListener(modifyListener);
+				}
 			}
 		}
+
+		if (newInput != null) {
+			// the viewer refreshes all rows after the input changes
+			shown.clear();
+			showTimeline(getUsername(newInput), false);
+		}
 	}
-	
-	// the parameter 'inputElement' is the one supplied to 'setInput'
-	public Object[] getElements(Object inputElement) {
-		String username = getUsername(inputElement);
-		if (username == null || username.equals("")) {
-			return EMPTY_CONTENT;
-		}
-		
-		Twitter twitter = TwitterAuthUtil.getTwitterInstance();
-		
-		// create a list of user statuses to be displayed in the viewer (table)
-		try {
-			List<Status> statuses = new ArrayList<Status>();
-			
-			if (progressBar != null) {
-				// set the range (0,1) and the current position (0)
-				progressBar.setMaximum(1); 
-				progressBar.setSelection(0); 
+
+	/**
+	 * Shows again the timeline of the user given by the current input.
+	 * Only newer statuses are fetched if the user is shown already.
+	 */
+	public void refreshTimeline() {
+		if (showTimeline(getUsername(viewer.getInput()), true)) {
+			// another timeline, the table asks for the visible rows again
+			clearShownRows(0);
+		}
+	}
+
+	/**
+	 * Fetches newer statuses of the shown timeline unless it is streamed or
+	 * it has been refreshed recently.
+	 *
+	 * @return true if newer statuses have been shown since the last call
+	 */
+	public boolean autoRefresh() {
+		if (stale || model == null) return false;
+
+		long topId = timeline.getSize() > 0 ? timeline.getId(0) : 0;
+		boolean changed = topId != autoRefreshTopId;
+		autoRefreshTopId = topId;
+
+		if (!streaming) {
+			model.refresh(false);
+		}
+		return changed;
+	}
+
+	/**
+	 * Switches streaming of new statuses of the shown timeline on or off.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		if (model != null) {
+			model.setStreaming(modelListener, streaming);
+		}
+	}
+
+	/**
+	 * Shows only the loaded statuses containing all words of the filter, all
+	 * statuses if it is empty.
+	 */
+	public void setFilter(String filter) {
+		this.filter = filter;
+		if (sorter == null) {
+			applyFilter();
+			return;
+		}
+
+		// the matching rows are sorted again, the table keeps the items of the rows still shown
+		long[] oldSorted = sorted;
+		filtered = filter != null ? timeline.filter(filter) : null;
+		sorted = sorter.sort(filtered != null ? filtered : timeline.getIds());
+		if (viewer != null && message == null) {
+			applyDelta(RowDelta.compute(oldSorted, sorted, sorter));
+		}
+	}
+
+	/**
+	 * Sorts the loaded statuses by the column (one of the {@link RowSorter}
+	 * columns), -1 shows them in the order of the timeline.
+	 */
+	public void setSort(int column, boolean ascending) {
+		sortColumn = column;
+		sortAscending = ascending;
+		sortRows();
+		if (viewer != null && message == null) {
+			// all rows may have moved
+			updateItemCount();
+			clearShownRows(0);
+		}
+	}
+
+	/**
+	 * Fetches statuses missing in the given gap row.
+	 */
+	public void expandGap(TimelineGap gap) {
+		if (stale || model == null) return;
+
+		model.expandGap(gap);
+	}
+
+	// the table wants to show the row with the given index
+	@Override
+	public void updateElement(int index) {
+		shown.set(index);
+
+		if (message != null) {
+			viewer.replace(message, index);
+			return;
+		}
+
+		long[] rows = getRows();
+		if (rows != null) {
+			if (rows.length == 0) {
+				viewer.replace(filtered != null ? NO_MATCH_MESSAGE : NO_MESSAGE, index);
+			} else {
+				int row = timeline.indexOf(rows[index]);
+				model.setLastIndex(modelListener, row);
+				updateRow(row, index);
 			}
-			
-			User user = twitter.showUser(username);
-			if (user != null) {
-				statuses.add(twitter.showStatus(user.getStatus().getId()));
-				// we have the user status -> update our progress bar
-				if (progressBar != null) progressBar.setSelection(1);
+			return;
+		}
+
+		model.setLastIndex(modelListener, index);
+
+		if (index >= timeline.getSize()) {
+			// the last row stands for statuses which have not been fetched yet
+			if (model.getTailMessage() != null) {
+				viewer.replace(model.getTailMessage(), index);
+			} else {
+				viewer.replace(new PendingRow("Loading older messages..."), index);
+				requestAppend();
 			}
-			
-			if (!statuses.isEmpty()) {
-				return statuses.toArray();
+			return;
+		}
+
+		updateRow(index, index);
+
+		// prefetch the next page when the user gets close to the end
+		if (index >= timeline.getSize() - UserTimeline.PAGE_SIZE && !isBudgetLow()) {
+			requestAppend();
+		}
+	}
+
+	// shows the timeline row at the given position of the table
+	private void updateRow(int index, int position) {
+		if (timeline.isEvicted(index)) {
+			// the status may still be in the shared cache or on the disk
+			model.restore(index, modelListener);
+		}
+
+		StatusRow row = timeline.getRow(index);
+		if (row != null) {
+			viewer.replace(row, position);
+		} else if (timeline.getGap(index) != null) {
+			viewer.replace(timeline.getGap(index), position);
+		} else if (timeline.isUnavailable(index)) {
+			viewer.replace(UNAVAILABLE_MESSAGE, position);
+		} else {
+			viewer.replace(new PendingRow("Loading..."), position);
+			if (!stale) {
+				model.requestReload(index);
 			}
-			else {
-				return EMPTY_CONTENT;
+		}
+	}
+
+	// nothing is requested for a timeline which is about to be replaced
+	private void requestAppend() {
+		if (!stale) {
+			model.requestAppend();
+		}
+	}
+
+	// the budget is saved for the rows the user actually scrolls to
+	private boolean isBudgetLow() {
+		RateLimitBudget budget = TwitterClient.getBudget(TwitterRequest.USER_TIMELINE);
+		return budget != null && budget.isLow(LOW_BUDGET);
+	}
+
+	/*
+	 * Returns false if the timeline was shown already and it is only refreshed. Unless
+	 * the refresh is forced, a timeline refreshed recently is not refreshed again.
+	 */
+	private boolean showTimeline(String newUsername, boolean force) {
+		if (model != null && !stale && newUsername != null && newUsername.equalsIgnoreCase(username)) {
+			model.refresh(force);
+			// the viewer may have been showing a merged timeline meanwhile
+			updateItemCount();
+			showProgress();
+			model.setStreaming(modelListener, streaming);
+			return false;
+		}
+
+		stale = false;
+		username = newUsername;
+		TimelineModel oldModel = model;
+
+		if (username == null || username.equals("")) {
+			model = null;
+			timeline = null;
+			message = NO_MESSAGE;
+		} else {
+			// another view may show the timeline already
+			model = getModels().acquire(username, modelListener);
+			timeline = model.getTimeline();
+			message = null;
+		}
+		if (oldModel != null && oldModel != model) {
+			getModels().release(oldModel, modelListener);
+		}
+
+		if (model != null) {
+			model.open(force, modelListener);
+			model.setStreaming(modelListener, streaming);
+		}
+
+		filtered = filter != null && timeline != null ? timeline.filter(filter) : null;
+		sortRows();
+		updateItemCount();
+		showProgress();
+		return true;
+	}
+
+	private TimelineModelRegistry getModels() {
+		return TwitterViewPlugin.getDefault().getTimelineModels();
+	}
+
+	/*
+	 * Filters the timeline again. Rows which no longer match are removed from the
+	 * table and the newly matching ones inserted, the table keeps the items of the others.
+	 */
+	private void applyFilter() {
+		if (viewer == null || message != null) return;
+
+		long[] oldFiltered = filtered;
+		filtered = filter != null ? timeline.filter(filter) : null;
+		if (oldFiltered == null && filtered == null) return;
+
+		long[] oldIds = oldFiltered != null ? oldFiltered : timeline.getIds();
+		RowDelta delta = RowDelta.compute(oldIds, filtered != null ? filtered : timeline.getIds());
+		if (sorted != null) {
+			// the filter is the same, only the rows matching now are merged in
+			mergeRows(getInsertedIds(delta, filtered));
+		} else {
+			applyDelta(delta);
+		}
+	}
+
+	// the sorter of the shown timeline, the rows are sorted from scratch
+	private void sortRows() {
+		sorter = sortColumn >= 0 && timeline != null ? new RowSorter(timeline, sortColumn, sortAscending) : null;
+		sorted = sorter != null ? sorter.sort(filtered != null ? filtered : timeline.getIds()) : null;
+	}
+
+	// merges the rows into the sorted ones, the table gets only the new items
+	private void mergeRows(long[] ids) {
+		long[] oldSorted = sorted;
+		sorted = sorter.merge(sorted, ids);
+		if (sorted != oldSorted) {
+			applyDelta(RowDelta.compute(oldSorted, sorted, sorter));
+		} else {
+			updateItemCount();
+		}
+	}
+
+	// ids of the rows inserted to the given rows, the timeline if they are null
+	private long[] getInsertedIds(RowDelta delta, long[] ids) {
+		long[] inserted = new long[delta.getInsertedCount()];
+		for (int i = 0; i < inserted.length; i++) {
+			int position = delta.getInserted(i);
+			inserted[i] = ids != null ? ids[position] : timeline.getId(position);
+		}
+		return inserted;
+	}
+
+	private long[] getIds(int start, int end) {
+		end = Math.min(end, timeline.getSize());
+		long[] ids = new long[Math.max(end - start, 0)];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = timeline.getId(start + i);
+		}
+		return ids;
+	}
+
+	// rows shown instead of the timeline, null if it is shown as it is
+	private long[] getRows() {
+		return sorted != null ? sorted : filtered;
+	}
+
+	// the table shows the given rows followed by the message or tail row, if any
+	private void applyDelta(RowDelta delta) {
+		LazyTableUpdater.apply(viewer, delta, shown);
+		updateItemCount();
+		// the row after the statuses may show something else now ("no match", the tail)
+		clearShownRows(delta.getNewSize());
+	}
+
+	private void updateItemCount() {
+		if (timeline != null) {
+			boolean empty = timeline.isComplete() && timeline.getSize() == 0 && model.getTailMessage() == null;
+			if (empty != (message != null)) {
+				// nothing to show or something to show at last
+				message = empty ? NO_MESSAGE : null;
+				clearShownRows(0);
+			}
+		}
+
+		if (message != null) {
+			viewer.setItemCount(1);
+		} else if (getRows() != null) {
+			// one row tells that nothing matches
+			viewer.setItemCount(Math.max(getRows().length, 1));
+		} else {
+			// one extra row at the end stands for the statuses which have not been fetched yet
+			boolean hasTail = !timeline.isComplete() || model.getTailMessage() != null;
+			viewer.setItemCount(timeline.getSize() + (hasTail ? 1 : 0));
+		}
+	}
+
+	// clears the item showing the timeline row, if it is shown
+	private void clearRow(int index) {
+		clearItem(getRows() != null ? getPosition(index) : index);
+	}
+
+	private void clearItem(int position) {
+		if (position < 0) return;
+
+		viewer.clear(position);
+		shown.clear(position);
+	}
+
+	// position of the timeline row in the filtered or sorted table or -1
+	private int getPosition(int index) {
+		if (index >= timeline.getSize()) return -1;
+
+		long id = timeline.getId(index);
+		if (sorted != null) {
+			return sorter.search(sorted, id);
+		}
+
+		int low = 0;
+		int high = filtered.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (filtered[mid] > id) {
+				low = mid + 1;
+			} else if (filtered[mid] < id) {
+				high = mid - 1;
+			} else {
+				return mid;
 			}
 		}
-		catch (Exception e) {
-			return new String[] {e.getMessage()};
+		return -1;
+	}
+
+	private void clearShownRows(int from) {
+		for (int i = shown.nextSetBit(from); i >= 0; i = shown.nextSetBit(i + 1)) {
+			viewer.clear(i);
+		}
+		shown.clear(from, Math.max(shown.length(), from));
+	}
+
+	private void showProgress() {
+		if (progressBar == null || progressBar.isDisposed()) return;
+
+		if (message != null) {
+			progressBar.setMaximum(1);
+			progressBar.setSelection(1);
+		} else {
+			// fetched statuses out of those available
+			int loaded = timeline.getSize();
+			progressBar.setMaximum(Math.max(model.getTotalCount(), loaded) + (timeline.isComplete() ? 0 : 1));
+			progressBar.setSelection(loaded);
 		}
 	}
 
@@ -139,8 +622,7 @@ public class MessageTimelineContentProvider implements IStructuredContentProvide
 		}
 		else if (inputElement instanceof UserNode) {
 			return ((UserNode) inputElement).getScreenName();
-		}		
+		}
 		return null;
 	}
-
 }
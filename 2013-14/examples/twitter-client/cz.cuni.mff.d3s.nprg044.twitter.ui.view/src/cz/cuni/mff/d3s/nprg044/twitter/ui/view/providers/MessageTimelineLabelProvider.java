@@ -1,30 +1,84 @@
 package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
 
-import java.net.URL;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
-import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.viewers.ITableLabelProvider;
 import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.StructuredViewer;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.widgets.Table;
 import org.eclipse.ui.ISharedImages;
 import org.eclipse.ui.PlatformUI;
 
-import twitter4j.Status;
-import twitter4j.User;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars.AvatarCache;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.avatars.AvatarLoader;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.PendingRow;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusRow;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.TimelineGap;
 
 public class MessageTimelineLabelProvider extends LabelProvider implements ITableLabelProvider {
 
-	// cache images for twitter users
-	private HashMap<User, Image> imageCache = new HashMap<User, Image>();
+	// minimal size of the profile images in pixels
+	private static final int MIN_AVATAR_SIZE = 16;
+
+	private StructuredViewer viewer;
+
+	// size of the profile images in pixels, it follows the height of table rows
+	private int avatarSize;
+
+	// images shared with other views, keyed by their URLs and sizes
+	private AvatarCache imageCache = TwitterViewPlugin.getDefault().getAvatarCache();
+
+	// URLs of images which could not be loaded, they are not requested again
+	private Set<String> failed = new HashSet<String>();
+
+	// statuses shown with the placeholder while their images are being loaded
+	private Map<String, Set<StatusRow>> waiting = new HashMap<String, Set<StatusRow>>();
+
+	// statuses shown with stale images while they are being revalidated, updated if the images change
+	private Map<String, Set<StatusRow>> revalidating = new HashMap<String, Set<StatusRow>>();
+
+	// shown until the real image is loaded, it keeps the row height stable
+	private Image placeholder;
+
+	private AvatarLoader loader;
+
+	public MessageTimelineLabelProvider(StructuredViewer viewer) {
+		this.viewer = viewer;
+
+		// rows have the height of a line of text (in the current font and zoom) until images are set
+		if (viewer.getControl() instanceof Table) {
+			avatarSize = Math.max(((Table) viewer.getControl()).getItemHeight(), MIN_AVATAR_SIZE);
+		} else {
+			avatarSize = MIN_AVATAR_SIZE;
+		}
+
+		this.loader = new AvatarLoader(viewer.getControl().getDisplay(), avatarSize,
+				TwitterViewPlugin.getDefault().getAvatarDiskCache(), new AvatarLoader.Listener() {
+			@Override
+			public void avatarLoaded(String url, ImageData imageData, boolean stale) {
+				imageLoaded(url, imageData, stale);
+			}
+
+			@Override
+			public void avatarRevalidated(String url, ImageData imageData) {
+				imageRevalidated(url, imageData);
+			}
+		});
+	}
 
 	// return image (a part of the label) for the given column
 	@Override
 	public Image getColumnImage(Object element, int columnIndex) {
-		if (element instanceof Status) {
-			Status status = (Status) element;
+		if (element instanceof StatusRow) {
+			StatusRow status = (StatusRow) element;
 			
 			// we want to show image only in the first column
 			switch(columnIndex) {
@@ -46,15 +100,15 @@ public class MessageTimelineLabelProvider extends LabelProvider implements ITabl
 	// return text part of the label for the given column
 	@Override
 	public String getColumnText(Object element, int columnIndex) {
-		if (element instanceof Status) {
-			Status status = (Status) element;
+		if (element instanceof StatusRow) {
+			StatusRow status = (StatusRow) element;
 			
 			// show user name in the second column and message text (status) in the third column
 			switch (columnIndex) {
 				case 0:
 					return null;
 				case 1:				
-					return '@' + status.getUser().getScreenName();
+					return status.getScreenName() != null ? '@' + status.getScreenName() : null;
 				case 2:
 					return status.getText();
 				default:
@@ -65,41 +119,103 @@ public class MessageTimelineLabelProvider extends LabelProvider implements ITabl
 		if (element instanceof String && columnIndex == 2) {
 			return (String) element;
 		}
+
+		if (element instanceof PendingRow && columnIndex == 2) {
+			return ((PendingRow) element).getMessage();
+		}
+
+		if (element instanceof TimelineGap && columnIndex == 2) {
+			return element.toString();
+		}
 			
 		return null;
 	}
 	
-	public Image getImage(Status status) {
-		User user = status.getUser();
-		
-		if (user != null && !imageCache.containsKey(user)) {
-			try {
-				// load image
-				URL imageUrl = new URL(user.getProfileImageURL());
-				Image image = createImageFromURL(imageUrl);
-				imageCache.put(user, image);
+	public Image getImage(StatusRow status) {
+		String url = status.getProfileImageURL();
+		if (url == null) {
+			return null;
+		}
+
+		Image image = imageCache.get(getCacheKey(url));
+		if (image != null) {
+			Set<StatusRow> statuses = revalidating.get(url);
+			if (statuses != null) {
+				statuses.add(status);
 			}
-			catch (Exception e) {}
+			return image;
 		}
-		
-		return imageCache.get(user);		
+		if (failed.contains(url)) {
+			return null;
+		}
+
+		// load the image in the background, the row is updated when it is ready
+		Set<StatusRow> statuses = waiting.get(url);
+		if (statuses == null) {
+			statuses = new HashSet<StatusRow>();
+			waiting.put(url, statuses);
+			loader.load(url);
+		}
+		statuses.add(status);
+
+		return getPlaceholder();
 	}
-	
-	private Image createImageFromURL(URL url) {
-		ImageDescriptor imgDescriptor =  ImageDescriptor.createFromURL(url);
-		ImageData imgData = imgDescriptor.getImageData().scaledTo(64, 64);
-		Display display = Display.getCurrent();			
-		Image image = new Image(display, imgData);
-		
-		return image;			
+
+	// called in the UI thread
+	private void imageLoaded(String url, ImageData imageData, boolean stale) {
+		if (viewer.getControl().isDisposed()) return;
+
+		if (imageData != null) {
+			imageCache.put(getCacheKey(url), new Image(viewer.getControl().getDisplay(), imageData));
+		} else {
+			failed.add(url);
+		}
+
+		Set<StatusRow> statuses = waiting.remove(url);
+		if (stale) {
+			// the rows are remembered until the image is revalidated
+			revalidating.put(url, statuses != null ? statuses : new HashSet<StatusRow>());
+		}
+		if (statuses != null) {
+			viewer.update(statuses.toArray(), null);
+		}
+	}
+
+	// called in the UI thread
+	private void imageRevalidated(String url, ImageData imageData) {
+		Set<StatusRow> statuses = revalidating.remove(url);
+		if (imageData == null || viewer.getControl().isDisposed()) return;
+
+		imageCache.put(getCacheKey(url), new Image(viewer.getControl().getDisplay(), imageData));
+		// only the rows which used the replaced image are updated
+		if (statuses != null && !statuses.isEmpty()) {
+			viewer.update(statuses.toArray(), null);
+		}
+	}
+
+	// images of different sizes are cached separately
+	private String getCacheKey(String url) {
+		return avatarSize + "@" + url;
+	}
+
+	private Image getPlaceholder() {
+		if (placeholder == null) {
+			// fully transparent image of the same size as the profile images
+			ImageData data = new ImageData(avatarSize, avatarSize, 1, new PaletteData(new RGB[] { new RGB(255, 255, 255) }));
+			data.transparentPixel = 0;
+			placeholder = new Image(viewer.getControl().getDisplay(), data);
+		}
+		return placeholder;
 	}
 	
 	@Override
 	public void dispose() {
+		loader.dispose();
+
 		// created images have to be disposed explicitly
-		// we must free all resources
-		for (Image image : imageCache.values()) {
-			image.dispose();
+		// profile images are owned by the shared cache
+		if (placeholder != null) {
+			placeholder.dispose();
 		}
 	
 		super.dispose();
@@ -0,0 +1,175 @@
+package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.graphics.TextLayout;
+import org.eclipse.swt.graphics.TextStyle;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableItem;
+
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusEntities;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.timeline.StatusRow;
+
+/**
+ * Owner-drawn message column of the timeline table.
+ *
+ * Texts of statuses are drawn by {@link TextLayout}s wrapped to the width of
+ * the column, mentions, hashtags and links are styled using the entity offsets
+ * kept by the timeline. A layout is created when its row is painted for the
+ * first time and cached by the id of the status. The text of a status never
+ * changes, so the layout is reused until the column is resized (then it is
+ * only wrapped again) or until it falls out of the cache. Painting a row while
+ * scrolling costs a lookup and drawing of the laid out text.
+ *
+ * Other rows (messages, gaps) are drawn by the table itself.
+ */
+public class MessageTimelineRenderer {
+
+	// number of cached layouts, a few screens of rows
+	private static final int MAX_LAYOUTS = 300;
+
+	// lines of text shown in a row, the rest of a longer text is cut
+	private static final int MAX_LINES = 2;
+
+	// space around the text in pixels
+	private static final int MARGIN = 2;
+
+	private Table table;
+	private int column;
+
+	// the same for all rows, 0 until the first row is measured
+	private int rowHeight;
+
+	// mentions and hashtags
+	private TextStyle entityStyle;
+	private TextStyle linkStyle;
+
+	// layouts by the ids of the statuses, least recently used first
+	private LinkedHashMap<Long, TextLayout> layouts = new LinkedHashMap<Long, TextLayout>(16, 0.75f, true);
+
+	private Listener listener = new Listener() {
+		@Override
+		public void handleEvent(Event event) {
+			switch (event.type) {
+				case SWT.MeasureItem:
+					measureItem(event);
+					break;
+				case SWT.EraseItem:
+					eraseItem(event);
+					break;
+				case SWT.PaintItem:
+					paintItem(event);
+					break;
+				case SWT.Dispose:
+					dispose();
+					break;
+			}
+		}
+	};
+
+	public MessageTimelineRenderer(Table table, int column) {
+		this.table = table;
+		this.column = column;
+
+		Color linkColor = table.getDisplay().getSystemColor(SWT.COLOR_LINK_FOREGROUND);
+		entityStyle = new TextStyle(null, linkColor, null);
+		linkStyle = new TextStyle(null, linkColor, null);
+		linkStyle.underline = true;
+		linkStyle.underlineStyle = SWT.UNDERLINE_LINK;
+
+		table.addListener(SWT.MeasureItem, listener);
+		table.addListener(SWT.EraseItem, listener);
+		table.addListener(SWT.PaintItem, listener);
+		table.addListener(SWT.Dispose, listener);
+	}
+
+	private void measureItem(Event event) {
+		if (event.index != column) return;
+
+		if (rowHeight == 0) {
+			rowHeight = event.gc.getFontMetrics().getHeight() * MAX_LINES + 2 * MARGIN;
+		}
+		// rows have the same height (they do on most platforms anyway), so it is not measured for every text
+		event.height = Math.max(event.height, rowHeight);
+	}
+
+	private void eraseItem(Event event) {
+		if (event.index == column && event.item.getData() instanceof StatusRow) {
+			// the table draws the background and the selection, the text is drawn here
+			event.detail &= ~SWT.FOREGROUND;
+		}
+	}
+
+	private void paintItem(Event event) {
+		if (event.index != column || !(event.item.getData() instanceof StatusRow)) return;
+
+		TableItem item = (TableItem) event.item;
+		TextLayout layout = getLayout((StatusRow) item.getData(), table.getColumn(column).getWidth() - 2 * MARGIN);
+		if (layout == null) return;
+
+		// a short text is centered, a long one starts at the top and is cut at the bottom
+		Rectangle bounds = item.getBounds(column);
+		int y = bounds.y + Math.max((bounds.height - layout.getBounds().height) / 2, MARGIN);
+
+		Rectangle clipping = event.gc.getClipping();
+		event.gc.setClipping(bounds);
+		layout.draw(event.gc, bounds.x + MARGIN, y);
+		event.gc.setClipping(clipping);
+	}
+
+	// returns null if the status has been evicted before it was painted
+	private TextLayout getLayout(StatusRow row, int width) {
+		TextLayout layout = layouts.get(row.getId());
+		if (layout == null) {
+			String text = row.getText();
+			if (text == null) return null;
+
+			layout = createLayout(text, row.getEntities());
+			layouts.put(row.getId(), layout);
+			trim();
+		}
+
+		// only a resized column needs the text wrapped again
+		width = Math.max(width, 1);
+		if (layout.getWidth() != width) {
+			layout.setWidth(width);
+		}
+		return layout;
+	}
+
+	private TextLayout createLayout(String text, StatusEntities entities) {
+		TextLayout layout = new TextLayout(table.getDisplay());
+		layout.setFont(table.getFont());
+		layout.setText(text);
+
+		for (int i = 0; i < entities.getCount(); i++) {
+			// the end offset of an entity is exclusive, the one of a style inclusive
+			TextStyle style = entities.getKind(i) == StatusEntities.URL ? linkStyle : entityStyle;
+			layout.setStyle(style, entities.getStart(i), entities.getEnd(i) - 1);
+		}
+		return layout;
+	}
+
+	// layouts hold native resources, the evicted ones are disposed
+	private void trim() {
+		Iterator<TextLayout> it = layouts.values().iterator();
+		while (layouts.size() > MAX_LAYOUTS) {
+			TextLayout eldest = it.next();
+			it.remove();
+			eldest.dispose();
+		}
+	}
+
+	private void dispose() {
+		for (TextLayout layout : layouts.values()) {
+			layout.dispose();
+		}
+		layouts.clear();
+	}
+}
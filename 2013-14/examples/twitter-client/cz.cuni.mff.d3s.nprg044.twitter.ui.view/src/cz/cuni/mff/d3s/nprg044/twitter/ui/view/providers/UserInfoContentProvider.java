@@ -3,17 +3,26 @@
  */
 package cz.cuni.mff.d3s.nprg044.twitter.ui.view.providers;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Text;
 
 import twitter4j.Twitter;
 import twitter4j.TwitterException;
 import twitter4j.TwitterFactory;
 import twitter4j.User;
-import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterAuthUtil;
+import cz.cuni.mff.d3s.nprg044.twitter.auth.TwitterRequest;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.TwitterViewPlugin;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.TwitterClient;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.AbstractUserInfoViewNode;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.ErrorNode;
+import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.PendingNode;
 import cz.cuni.mff.d3s.nprg044.twitter.ui.view.internal.model.UserNode;
 
 public class UserInfoContentProvider implements ILazyTreeContentProvider {
@@ -21,11 +30,42 @@ public class UserInfoContentProvider implements ILazyTreeContentProvider {
 	private static final String CANNOT_RETRIEVE_DATA = "cannot retrieve data" ;
 	
 	private TreeViewer viewer;
-	
-	private Twitter twitter = TwitterAuthUtil.getTwitterInstance();
+
+	// the shown user has changed since the last automatic refresh
+	private boolean updated;
+	private Job updateJob;
+	// resolves the user which is not known yet
+	private Job lookupJob;
 
 	@Override
 	public void dispose() {
+		if (updateJob != null) {
+			updateJob.cancel();
+			updateJob = null;
+		}
+		if (lookupJob != null) {
+			lookupJob.cancel();
+			lookupJob = null;
+		}
+	}
+
+	/**
+	 * Fetches the current state of the shown user in the background, the tree
+	 * is refreshed if the user has changed.
+	 *
+	 * @return true if the tree has been refreshed since the last call
+	 */
+	public boolean autoRefresh() {
+		boolean result = updated;
+		updated = false;
+
+		if (viewer == null || !(viewer.getInput() instanceof Text)) return result;
+		String screenName = ((Text) viewer.getInput()).getText();
+		if (screenName.equals("") || (updateJob != null && updateJob.getState() != Job.NONE)) return result;
+
+		updateJob = new UpdateJob(screenName, viewer.getControl().getDisplay());
+		updateJob.schedule();
+		return result;
 	}
 
 	@Override
@@ -47,7 +87,37 @@ public class UserInfoContentProvider implements ILazyTreeContentProvider {
 	
 	private void handleTextControl(Text parent, int index) {
 		String username = parent.getText();
-		User user = getUser(username);
+
+		// the shared client, nodes of the tree use it to get their children
+		Twitter twitter;
+		try {
+			twitter = TwitterClient.getTwitter();
+		} catch (TwitterException e) {
+			ErrorNode errorNode = new ErrorNode(CANNOT_RETRIEVE_DATA + ": " + e.getMessage(), null);
+			viewer.replace(parent, index, errorNode);
+			viewer.setChildCount(errorNode, 0);
+			return;
+		}
+
+		User user = TwitterClient.getCachedUser(username);
+		if (user != null) {
+			showUser(parent, index, twitter, username, user);
+			return;
+		}
+
+		// the request may wait for the rate limit, the user is shown when it arrives
+		PendingNode pendingNode = new PendingNode("Getting @" + username + "...", null);
+		viewer.replace(parent, index, pendingNode);
+		viewer.setChildCount(pendingNode, 0);
+
+		if (lookupJob != null) {
+			lookupJob.cancel();
+		}
+		lookupJob = new LookupJob(parent, index, twitter, username);
+		lookupJob.schedule();
+	}
+
+	private void showUser(Text parent, int index, Twitter twitter, String username, User user) {
 		// create tree node for the user
 		if (user != null) {
 			UserNode userNode = new UserNode(user, null, twitter, viewer);			
@@ -90,11 +160,112 @@ public class UserInfoContentProvider implements ILazyTreeContentProvider {
 		return null;
 	}
 	
-	private User getUser(String username) {
-		try {
-			return twitter.showUser(username);
-		} catch (TwitterException e) {
-			return null;
+	// the user is shown in a different way if any of the shown properties has changed
+	private static boolean isChanged(User user, User known) {
+		if (known == null) return true;
+
+		return user.getStatusesCount() != known.getStatusesCount() || user.getFollowersCount() != known.getFollowersCount()
+				|| user.getFriendsCount() != known.getFriendsCount() || !user.getScreenName().equals(known.getScreenName());
+	}
+
+	/**
+	 * Resolves the shown user outside the UI thread and replaces the pending node.
+	 */
+	private class LookupJob extends Job {
+
+		private Text parent;
+		private int index;
+		private Twitter twitter;
+		private String screenName;
+		private Display display;
+
+		public LookupJob(Text parent, int index, Twitter twitter, String screenName) {
+			super("Getting @" + screenName + "...");
+			this.parent = parent;
+			this.index = index;
+			this.twitter = twitter;
+			this.screenName = screenName;
+			this.display = parent.getDisplay();
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			User user;
+			try {
+				user = TwitterClient.getUser(screenName, TwitterRequest.PRIORITY_INTERACTIVE, monitor);
+			}
+			catch (TwitterException e) {
+				// only the screen name is shown
+				user = null;
+			}
+			catch (OperationCanceledException e) {
+				return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+			}
+
+			final User result = user;
+			if (display.isDisposed()) return org.eclipse.core.runtime.Status.OK_STATUS;
+
+			display.asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					// the user may not be shown anymore
+					if (lookupJob == LookupJob.this && !viewer.getControl().isDisposed() && viewer.getInput() == parent
+							&& screenName.equals(parent.getText())) {
+						lookupJob = null;
+						showUser(parent, index, twitter, screenName, result);
+					}
+				}
+			});
+			return org.eclipse.core.runtime.Status.OK_STATUS;
 		}
-	}	
+	}
+
+	/**
+	 * Fetches the current state of a user outside the UI thread.
+	 */
+	private class UpdateJob extends Job {
+
+		private String screenName;
+		private Display display;
+
+		public UpdateJob(String screenName, Display display) {
+			super("Updating @" + screenName + "...");
+			this.screenName = screenName;
+			this.display = display;
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				final User user = TwitterClient.get(TwitterClient.resolveUser(screenName, TwitterRequest.PRIORITY_BACKGROUND), monitor);
+				// the user may be read from the disk
+				final User known = TwitterClient.getKnownUser(screenName);
+				TwitterViewPlugin.getDefault().getLocalStore().putUser(user);
+				if (display.isDisposed()) return org.eclipse.core.runtime.Status.OK_STATUS;
+
+				display.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						TwitterClient.cacheUser(user);
+
+						// the user may not be shown anymore
+						if (!viewer.getControl().isDisposed() && isChanged(user, known) && viewer.getInput() instanceof Text
+								&& screenName.equals(((Text) viewer.getInput()).getText())) {
+							viewer.refresh();
+							updated = true;
+						}
+					}
+				});
+			}
+			catch (TwitterException e) {
+				// the shown user is kept until the next attempt
+			}
+			catch (OperationCanceledException e) {
+				return org.eclipse.core.runtime.Status.CANCEL_STATUS;
+			}
+			return org.eclipse.core.runtime.Status.OK_STATUS;
+		}
+	}
 }